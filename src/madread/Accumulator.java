@@ -0,0 +1,123 @@
+package madread;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * One-pass summary of parsed events: each accepted event is filled into histograms of observables as soon as it is
+ * parsed and then dropped, so that a run of any size is summarised in constant memory. Partial accumulators of the
+ * same observables, e.g. one per thread of a parallel parse, are merged at the end.
+ */
+public class Accumulator
+{
+    /**
+     * Whether fills are weighted by the event weight XWGTUP.
+     */
+    public final boolean weighted;
+
+    private final List<Observable> observables = new ArrayList<>();
+
+    private final List<Histogram> histograms = new ArrayList<>();
+
+    private long events;
+
+    /**
+     * @param weighted Whether fills are weighted by the event weight XWGTUP instead of 1.
+     */
+    public Accumulator(boolean weighted)
+    {
+        this.weighted = weighted;
+    }
+
+    /**
+     * Histogram an observable of every event.
+     * @return This accumulator.
+     */
+    public Accumulator add(Observable observable, Histogram histogram)
+    {
+        observables.add(observable);
+        histograms.add(histogram);
+        return this;
+    }
+
+    /**
+     * Fill an event into every histogram.
+     * @param weight Event weight XWGTUP.
+     */
+    public void fill(EventStore store, int event, double weight)
+    {
+        double w = weighted ? weight : 1;
+        for (int i=0; i<observables.size(); i++)
+            histograms.get(i).fill(observables.get(i).value(store, event), w);
+        events++;
+    }
+
+    /**
+     * @return Empty accumulator of the same observables and binning, to be filled separately and merged.
+     */
+    public Accumulator partial()
+    {
+        Accumulator p = new Accumulator(weighted);
+        for (int i=0; i<observables.size(); i++)
+            p.add(observables.get(i), histograms.get(i).copy());
+        return p;
+    }
+
+    /**
+     * Add the fills of a partial accumulator.
+     */
+    public void merge(Accumulator other)
+    {
+        if (other.histograms.size() != histograms.size())
+            throw new RuntimeException("Cannot merge accumulators of different observables!");
+        for (int i=0; i<histograms.size(); i++)
+            histograms.get(i).merge(other.histograms.get(i));
+        events += other.events;
+    }
+
+    /**
+     * @return Number of events filled.
+     */
+    public long events()
+    {
+        return events;
+    }
+
+    public List<Histogram> getHistograms()
+    {
+        return histograms;
+    }
+
+    /**
+     * @return The histogram of the given name, or null if none.
+     */
+    public Histogram histogram(String name)
+    {
+        for (Histogram h: histograms)
+            if (h.name.equals(name))
+                return h;
+        return null;
+    }
+
+    /**
+     * Write each histogram into its own <code>name</code>.csv and the moments of all into summary.csv at the given
+     * directory.
+     */
+    public void write(String dir) throws IOException
+    {
+        for (Histogram h: histograms)
+            h.write(dir);
+        try (CsvWriter out = new CsvWriter(new File(dir + "summary.csv"),
+                "observable, entries, sum of weights, mean, variance, min, max", 1 << 12))
+        {
+            for (Histogram h: histograms)
+            {
+                out.add(h.name).add(h.entries()).add(h.sumOfWeights()).add(h.mean()).add(h.variance());
+                out.add(h.min()).add(h.max());
+                out.endRow();
+            }
+        }
+    }
+}
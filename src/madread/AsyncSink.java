@@ -0,0 +1,253 @@
+package madread;
+
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Arrays;
+
+/**
+ * Output stream handing lines over to a single background thread that writes them out, so that printing from a hot
+ * loop costs a copy into memory instead of a write to the console. Bytes are staged until a line is complete and the
+ * line is then committed to a bounded ring whole; when the ring is full a line is either dropped and counted, or the
+ * printing thread waits for room, as chosen at construction. The writer drains the ring in bulk and flushes the
+ * target whenever it is emptied. Install it for <code>Print</code> with <code>Print.async</code>.
+ */
+public class AsyncSink extends OutputStream
+{
+    /**
+     * Default size in bytes of the ring.
+     */
+    public static final int CAPACITY = 1 << 20;
+
+    private final OutputStream target;
+
+    private final byte[] ring;
+
+    /**
+     * Whether a full ring blocks the printing thread rather than dropping the line.
+     */
+    private final boolean block;
+
+    /**
+     * Bytes of the line being printed.
+     */
+    private byte[] line = new byte[256];
+
+    private int lineLength;
+
+    /**
+     * Bytes ever committed to and taken from the ring, guarded by <code>this</code>.
+     */
+    private long head, tail;
+
+    private long dropped;
+
+    private boolean closed;
+
+    private IOException failure;
+
+    private final Thread writer;
+
+    /**
+     * Sink of the standard output with a ring of the default size, dropping lines when full.
+     */
+    public AsyncSink()
+    {
+        this(new FileOutputStream(FileDescriptor.out), CAPACITY, false);
+    }
+
+    /**
+     * @param target Stream written by the background thread.
+     * @param capacity Size in bytes of the ring, bounding the memory of lines not yet written.
+     * @param block Whether a full ring blocks the printing thread instead of dropping the line.
+     */
+    public AsyncSink(OutputStream target, int capacity, boolean block)
+    {
+        this.target = target;
+        this.ring = new byte[Math.max(capacity, 1 << 10)];
+        this.block = block;
+        writer = new Thread(this::drain, "madread-print");
+        writer.setDaemon(true);
+        writer.start();
+    }
+
+    @Override
+    public synchronized void write(int b) throws IOException
+    {
+        stage(b);
+        if (b == '\n')
+            commit();
+    }
+
+    @Override
+    public synchronized void write(byte[] b, int off, int len) throws IOException
+    {
+        for (int i=off; i<off+len; i++)
+        {
+            stage(b[i]);
+            if (b[i] == '\n')
+                commit();
+        }
+    }
+
+    private void stage(int b)
+    {
+        if (lineLength == line.length)
+            line = Arrays.copyOf(line, line.length * 2);
+        line[lineLength++] = (byte) b;
+    }
+
+    /**
+     * Move the staged line into the ring, waiting for room or dropping it if there is none.
+     */
+    private void commit() throws IOException
+    {
+        if (failure != null)
+            throw failure;
+        if (closed)
+            throw new IOException("Sink closed!");
+        int n = lineLength;
+        lineLength = 0;
+        if (n > ring.length)
+        {
+            dropped++;
+            return;
+        }
+        while (ring.length - (head - tail) < n)
+        {
+            if (!block)
+            {
+                dropped++;
+                return;
+            }
+            try
+            {
+                wait();
+            }
+            catch (InterruptedException e)
+            {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while printing!", e);
+            }
+        }
+        int at = (int) (head % ring.length);
+        int first = Math.min(n, ring.length - at);
+        System.arraycopy(line, 0, ring, at, first);
+        System.arraycopy(line, first, ring, 0, n - first);
+        boolean empty = head == tail;
+        head += n;
+        // the writer only waits on an empty ring.
+        if (empty)
+            notifyAll();
+        if (line.length > 1 << 16)
+            line = new byte[256];
+    }
+
+    private void drain()
+    {
+        while (true)
+        {
+            long from, to;
+            synchronized (this)
+            {
+                while (head == tail && !closed)
+                    try
+                    {
+                        wait();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        return;
+                    }
+                if (head == tail)
+                    return;
+                from = tail;
+                to = head;
+            }
+            try
+            {
+                // the ring between from and to is not written until tail moves past it.
+                int at = (int) (from % ring.length);
+                int n = (int) (to - from);
+                int first = Math.min(n, ring.length - at);
+                target.write(ring, at, first);
+                target.write(ring, 0, n - first);
+                synchronized (this)
+                {
+                    tail = to;
+                    notifyAll();
+                    if (head != tail)
+                        continue;
+                }
+                target.flush();
+            }
+            catch (IOException e)
+            {
+                synchronized (this)
+                {
+                    failure = e;
+                    tail = head;
+                    notifyAll();
+                }
+                return;
+            }
+        }
+    }
+
+    /**
+     * Commit the partial line, if any, and wait until everything committed is written.
+     */
+    @Override
+    public void flush() throws IOException
+    {
+        synchronized (this)
+        {
+            if (lineLength != 0)
+                commit();
+            while (head != tail && failure == null)
+                try
+                {
+                    wait();
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while flushing!", e);
+                }
+            if (failure != null)
+                throw failure;
+        }
+        target.flush();
+    }
+
+    /**
+     * @return Number of lines dropped for want of room.
+     */
+    public synchronized long dropped()
+    {
+        return dropped;
+    }
+
+    /**
+     * Write out everything committed and stop the writer; the target is flushed but left open.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        flush();
+        synchronized (this)
+        {
+            closed = true;
+            notifyAll();
+        }
+        try
+        {
+            writer.join();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+        }
+    }
+}
@@ -0,0 +1,296 @@
+package madread;
+
+import static madread.Print.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.Semaphore;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Processor of all the runs of a MadGraph process directory, i.e. of every <code>Events/run_*</code> holding an
+ * unweighted_events.lhe, compressed or not. Runs are processed concurrently on a fixed pool of threads, each by its own
+ * <code>MadReader</code>, and are admitted only while their estimated heap usage fits in the memory left by the runs
+ * in progress, so that a large file waits for memory instead of exhausting it. Every run writes its outputs into its
+ * own directory, and a runs.csv lists the outcome of all.
+ */
+public class BatchRunner
+{
+    /**
+     * Work done on a single run.
+     */
+    public interface Task
+    {
+        /**
+         * @param reader Reader of the run, configured with the filter and selection of the runner.
+         * @param outDir Directory of the outputs of the run, ending with '/'.
+         * @return Number of events processed.
+         */
+        long run(MadReader reader, String outDir) throws IOException;
+
+        /**
+         * @param events Number of events declared in the header of the file, or -1 if none is.
+         * @param multiplicity Number of particles selected per event, or 0 if every particle is.
+         * @param fileBytes Size of the event file.
+         * @param compressed Whether the event file is compressed.
+         * @return Estimated number of bytes of heap used while the run is processed.
+         */
+        default long estimate(long events, int multiplicity, long fileBytes, boolean compressed)
+        {
+            return 1 << 24;
+        }
+    }
+
+    /**
+     * Parse every event into memory and write the sim_momenta_*.csv files into sim_momenta/.
+     */
+    public static final Task MOMENTA = new Task()
+    {
+        @Override
+        public long run(MadReader reader, String outDir) throws IOException
+        {
+            reader.parse(outDir + "sim_momenta/");
+            return reader.getStore().size();
+        }
+
+        @Override
+        public long estimate(long events, int multiplicity, long fileBytes, boolean compressed)
+        {
+            // without a count of the events and particles, bounded by the text, which is about 5 times its compressed
+            // size and takes more bytes than its numbers do in columns.
+            if (events < 0 || multiplicity == 0)
+                return compressed ? fileBytes * 5 : fileBytes;
+            // columns grow by doubling, and every particle is written through its own buffer.
+            return 2 * EventStore.estimate(events, multiplicity) + (long) multiplicity * CsvWriter.BUFFER_SIZE;
+        }
+    };
+
+    /**
+     * Stream the events into the sim_momenta_*.csv files of sim_momenta/, in memory bounded regardless of the file.
+     */
+    public static final Task MOMENTA_STREAMING = (reader, outDir) -> reader.parseStreaming(outDir + "sim_momenta/");
+
+    /**
+     * Names of the event files looked for in a run directory, in order of preference.
+     */
+    private static final String[] EVENT_FILES = {"unweighted_events.lhe", "unweighted_events.lhe.gz"};
+
+    private static final int MIB = 1 << 20;
+
+    private final int[] reagents;
+
+    private final int[] products;
+
+    private final int threads;
+
+    private final long memoryBudget;
+
+    private EventFilter filter = EventFilter.ALL;
+
+    private ParticleSelector selector;
+
+    /**
+     * @param reagents Number code for incoming particles.
+     * @param products Number code for outgoing particles.
+     * @param threads Number of runs processed concurrently.
+     */
+    public BatchRunner(int[] reagents, int[] products, int threads)
+    {
+        this(reagents, products, threads, Runtime.getRuntime().maxMemory() / 4 * 3);
+    }
+
+    /**
+     * @param memoryBudget Number of bytes of heap the runs in progress may use together.
+     */
+    public BatchRunner(int[] reagents, int[] products, int threads, long memoryBudget)
+    {
+        if (threads < 1)
+            throw new RuntimeException("Number of threads must be positive!");
+        this.reagents = reagents.clone();
+        this.products = products.clone();
+        this.threads = threads;
+        this.memoryBudget = memoryBudget;
+    }
+
+    /**
+     * Select the events of every run.
+     * @return This runner.
+     */
+    public BatchRunner filter(EventFilter filter)
+    {
+        this.filter = filter;
+        return this;
+    }
+
+    /**
+     * Select the particles of every run instead of the reagents and products.
+     * @return This runner.
+     */
+    public BatchRunner select(ParticleSelector selector)
+    {
+        this.selector = selector;
+        return this;
+    }
+
+    /**
+     * Find the runs of a process directory.
+     * @param processDir MadGraph process directory, holding Events/.
+     * @return The event file of every run directory Events/run_* that has one, in order of the run names.
+     * @throws IOException
+     */
+    public static List<Path> discover(String processDir) throws IOException
+    {
+        Path events = Paths.get(processDir, "Events");
+        if (!Files.isDirectory(events))
+            throw new RuntimeException("No Events directory in " + processDir + "!");
+        List<Path> files = new ArrayList<>();
+        try (Stream<Path> runs = Files.list(events))
+        {
+            for (Path run: runs.filter(p -> p.getFileName().toString().startsWith("run_") && Files.isDirectory(p))
+                    .sorted().collect(Collectors.toList()))
+                for (String name: EVENT_FILES)
+                    if (Files.isRegularFile(run.resolve(name)))
+                    {
+                        files.add(run.resolve(name));
+                        break;
+                    }
+        }
+        return files;
+    }
+
+    /**
+     * Process every run of a process directory and list the outcomes in runs.csv, one row per run with the run name,
+     * event file, its size, the number of events processed, the time taken and "ok" or the error raised. A run failing
+     * does not stop the others.
+     * @param processDir MadGraph process directory, holding Events/.
+     * @param outDir Directory under which each run writes into a directory of its name, e.g. run_01/.
+     * @param task Work done on each run, e.g. <code>BatchRunner.MOMENTA</code>.
+     * @return Number of runs failed.
+     * @throws IOException
+     */
+    public int run(String processDir, String outDir, Task task) throws IOException
+    {
+        List<Path> files = discover(processDir);
+        int multiplicity = selector == null ? reagents.length + products.length
+                : selector.isAll() ? 0 : selector.size();
+        println(String.format("Processing %d runs on %d threads.", files.size(), threads));
+        int budget = (int) Math.max(1, Math.min(Integer.MAX_VALUE, memoryBudget / MIB));
+        Semaphore memory = new Semaphore(budget, true);
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        List<Future<String>> outcomes = new ArrayList<>();
+        long[] events = new long[files.size()];
+        long[] nanos = new long[files.size()];
+        try
+        {
+            for (int i=0; i<files.size(); i++)
+            {
+                int k = i;
+                Path file = files.get(i);
+                String run = file.getParent().getFileName().toString();
+                outcomes.add(pool.submit(() -> {
+                    long bytes = Files.size(file);
+                    long estimate = task.estimate(declaredEvents(file), multiplicity, bytes,
+                            LheStream.isCompressed(file.toString()));
+                    // a run exceeding the budget waits for every other run to finish.
+                    int permits = (int) Math.min(budget, Math.max(1, estimate / MIB));
+                    memory.acquire(permits);
+                    try
+                    {
+                        long start = System.nanoTime();
+                        MadReader reader = new MadReader(reagents, products, file.toString()).filter(filter)
+                                .select(selector);
+                        events[k] = task.run(reader, outDir + run + "/");
+                        nanos[k] = System.nanoTime() - start;
+                        println(String.format("%s: %d events in %.3f s.", run, events[k], nanos[k] / 1e9));
+                        return "ok";
+                    }
+                    finally
+                    {
+                        memory.release(permits);
+                    }
+                }));
+            }
+            int failed = 0;
+            try (CsvWriter out = new CsvWriter(new File(outDir + "runs.csv"),
+                    "run, file, bytes, events, seconds, status"))
+            {
+                for (int i=0; i<files.size(); i++)
+                {
+                    Path file = files.get(i);
+                    String status;
+                    try
+                    {
+                        status = outcomes.get(i).get();
+                    }
+                    catch (ExecutionException e)
+                    {
+                        failed++;
+                        status = String.valueOf(e.getCause()).replace(',', ';').replace('\n', ' ');
+                        println(String.format("%s failed: %s", file, status));
+                    }
+                    catch (InterruptedException e)
+                    {
+                        Thread.currentThread().interrupt();
+                        throw new IOException("Interrupted while waiting for " + file + "!", e);
+                    }
+                    out.add(file.getParent().getFileName().toString()).add(file.toString()).add(Files.size(file));
+                    out.add(events[i]).add(nanos[i] / 1e9).add(status);
+                    out.endRow();
+                }
+            }
+            return failed;
+        }
+        finally
+        {
+            pool.shutdownNow();
+        }
+    }
+
+    /**
+     * @return Number of events declared in the header of an event file, or -1 if none is.
+     */
+    private static long declaredEvents(Path file)
+    {
+        try
+        {
+            return CrossSections.fromLhe(file.getParent().getFileName().toString(), file.toString()).events;
+        }
+        catch (IOException | RuntimeException e)
+        {
+            // the run fails, if at all, when it is processed.
+            return -1;
+        }
+    }
+
+    /**
+     * Write the momenta of every run of a process directory.
+     * @param args Process directory, output directory ending with '/', and optionally the number of threads, and the
+     *             PDG codes of the reagents and of the products, separated by commas, by default -11,11 and 15,-15.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        int threads = args.length > 2 ? Integer.parseInt(args[2]) : Runtime.getRuntime().availableProcessors();
+        int[] reagents = args.length > 3 ? codes(args[3]) : new int[]{-11, 11};
+        int[] products = args.length > 4 ? codes(args[4]) : new int[]{15, -15};
+        new BatchRunner(reagents, products, threads).run(args[0], args[1], MOMENTA);
+    }
+
+    private static int[] codes(String list)
+    {
+        String[] f = list.split(",");
+        int[] codes = new int[f.length];
+        for (int i=0; i<f.length; i++)
+            codes[i] = Integer.parseInt(f[i].trim());
+        return codes;
+    }
+}
@@ -0,0 +1,188 @@
+package madread;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Reader of files written by <code>ColumnarWriter</code>. Uncompressed columns are views of the mapped file, so
+ * re-loading a processed run costs a single mapping; compressed ones are inflated into heap buffers on request.
+ */
+public class ColumnarReader implements Closeable
+{
+    private final FileChannel ch;
+
+    private final boolean compressed;
+
+    private final int[] pdg;
+
+    private final long rows;
+
+    private final int blockRows;
+
+    private final List<String> names = new ArrayList<>();
+
+    private final List<Byte> types = new ArrayList<>();
+
+    private final List<long[]> extents = new ArrayList<>();
+
+    /**
+     * @param path Path (in string) of the file to be read.
+     * @throws IOException
+     */
+    public ColumnarReader(String path) throws IOException
+    {
+        ch = FileChannel.open(Paths.get(path), StandardOpenOption.READ);
+        byte[] magic = new byte[ColumnarWriter.MAGIC.length];
+        ByteBuffer head = read(0, magic.length + 8).get(magic);
+        if (!Arrays.equals(magic, ColumnarWriter.MAGIC))
+            throw new RuntimeException(path + " is not a columnar momenta file!");
+        compressed = (head.getInt() & ColumnarWriter.COMPRESSED) != 0;
+        pdg = new int[head.getInt()];
+        head = read(magic.length + 8, 4 * pdg.length + 12);
+        for (int i = 0; i < pdg.length; i++)
+            pdg[i] = head.getInt();
+        rows = head.getLong();
+        blockRows = head.getInt();
+
+        // locate the directory from the trailer.
+        long size = ch.size();
+        ByteBuffer trailer = read(size - 8 - magic.length, 8 + magic.length);
+        long dir = trailer.getLong();
+        trailer.get(magic);
+        if (!Arrays.equals(magic, ColumnarWriter.MAGIC))
+            throw new RuntimeException(path + " is truncated!");
+        ByteBuffer d = read(dir, (int) (size - 8 - magic.length - dir));
+        int n = d.getInt();
+        for (int i = 0; i < n; i++)
+        {
+            byte[] name = new byte[d.getShort()];
+            d.get(name);
+            names.add(new String(name, StandardCharsets.UTF_8));
+            types.add(d.get());
+            extents.add(new long[]{d.getLong(), d.getLong()});
+        }
+    }
+
+    public int multiplicity()
+    {
+        return pdg.length;
+    }
+
+    /**
+     * @return PDG codes of the particles of each event.
+     */
+    public int[] pdg()
+    {
+        return Arrays.copyOf(pdg, pdg.length);
+    }
+
+    /**
+     * @return Number of rows of every column.
+     */
+    public long rows()
+    {
+        return rows;
+    }
+
+    public List<String> columns()
+    {
+        return Collections.unmodifiableList(names);
+    }
+
+    /**
+     * @param name Name of a column of doubles, e.g. px_1.
+     * @return The values of the column, in place in the mapped file if it is uncompressed.
+     * @throws IOException
+     */
+    public DoubleBuffer doubles(String name) throws IOException
+    {
+        return column(name, ColumnarWriter.DOUBLE, Double.BYTES).asDoubleBuffer();
+    }
+
+    /**
+     * @param name Name of a column of integers.
+     * @return The values of the column, in place in the mapped file if it is uncompressed.
+     * @throws IOException
+     */
+    public IntBuffer ints(String name) throws IOException
+    {
+        return column(name, ColumnarWriter.INT, Integer.BYTES).asIntBuffer();
+    }
+
+    private ByteBuffer column(String name, byte type, int width) throws IOException
+    {
+        int i = names.indexOf(name);
+        if (i < 0)
+            throw new RuntimeException("No column " + name + "!");
+        if (types.get(i) != type)
+            throw new RuntimeException("Column " + name + " is not of the requested type!");
+        long[] ext = extents.get(i);
+        MappedByteBuffer mapped = ch.map(FileChannel.MapMode.READ_ONLY, ext[0], ext[1]);
+        mapped.order(ByteOrder.LITTLE_ENDIAN);
+        if (!compressed)
+            return mapped;
+        ByteBuffer out = ByteBuffer.allocate(Math.toIntExact(rows * width)).order(ByteOrder.LITTLE_ENDIAN);
+        Inflater inflater = new Inflater();
+        try
+        {
+            while (mapped.hasRemaining())
+            {
+                int n = mapped.getInt();
+                ByteBuffer block = mapped.slice().limit(n);
+                mapped.position(mapped.position() + n);
+                inflater.reset();
+                inflater.setInput(block);
+                while (!inflater.finished())
+                    if (inflater.inflate(out) == 0 && inflater.needsInput())
+                        throw new RuntimeException("Truncated block in column " + name + "!");
+            }
+        }
+        catch (DataFormatException e)
+        {
+            throw new IOException("Corrupt block in column " + name, e);
+        }
+        finally
+        {
+            inflater.end();
+        }
+        return out.flip();
+    }
+
+    /**
+     * @return Number of rows per compressed block.
+     */
+    public int blockRows()
+    {
+        return blockRows;
+    }
+
+    private ByteBuffer read(long pos, int n) throws IOException
+    {
+        ByteBuffer b = ByteBuffer.allocate(n).order(ByteOrder.LITTLE_ENDIAN);
+        while (b.hasRemaining())
+            if (ch.read(b, pos + b.position()) < 0)
+                throw new IOException("Unexpected end of file");
+        return b.flip();
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        ch.close();
+    }
+}
@@ -0,0 +1,204 @@
+package madread;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.function.IntToDoubleFunction;
+import java.util.function.IntUnaryOperator;
+import java.util.zip.Deflater;
+
+/**
+ * Writer of the binary columnar format read back by <code>ColumnarReader</code>, a compact alternative to the
+ * sim_momenta_*.csv files. All numbers are little-endian:
+ * <pre>
+ * header:    magic "MADCOL01", int flags, int multiplicity, int[multiplicity] PDG codes, long rows, int block rows
+ * columns:   each either rows raw values, 8-byte aligned, or, if compressed, a sequence of blocks of block rows values
+ *            each as int length + deflated bytes
+ * directory: int columns, then per column short name length, UTF-8 name, byte type (0 double, 1 int), long offset,
+ *            long length
+ * trailer:   long offset of the directory, magic "MADCOL01"
+ * </pre>
+ * Uncompressed columns can be viewed in place once the file is mapped.
+ */
+public class ColumnarWriter implements Closeable
+{
+    static final byte[] MAGIC = "MADCOL01".getBytes(StandardCharsets.US_ASCII);
+
+    static final int COMPRESSED = 1;
+
+    static final byte DOUBLE = 0;
+
+    static final byte INT = 1;
+
+    /**
+     * Default number of rows per compressed block.
+     */
+    public static final int BLOCK_ROWS = 1 << 16;
+
+    private final FileChannel ch;
+
+    private final boolean compress;
+
+    private final int rows;
+
+    private final int blockRows;
+
+    private final ByteBuffer block;
+
+    private final Deflater deflater;
+
+    private byte[] deflated;
+
+    private final List<String> names = new ArrayList<>();
+
+    private final List<Byte> types = new ArrayList<>();
+
+    private final List<long[]> extents = new ArrayList<>();
+
+    private long pos;
+
+    /**
+     * @param path Path (in string) of the file to be written.
+     * @param pdg PDG codes of the particles of each event.
+     * @param rows Number of rows, i.e. of events, of every column.
+     * @param compress Whether the columns are deflated block by block.
+     * @throws IOException
+     */
+    public ColumnarWriter(String path, int[] pdg, int rows, boolean compress) throws IOException
+    {
+        File parent = new File(path).getAbsoluteFile().getParentFile();
+        if (parent != null)
+            parent.mkdirs();
+        this.ch = FileChannel.open(new File(path).toPath(), StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING);
+        this.compress = compress;
+        this.rows = rows;
+        this.blockRows = BLOCK_ROWS;
+        this.block = ByteBuffer.allocate(blockRows * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        this.deflater = compress ? new Deflater(Deflater.BEST_SPEED) : null;
+        this.deflated = compress ? new byte[block.capacity() + 64] : null;
+
+        ByteBuffer head = ByteBuffer.allocate(MAGIC.length + 12 + 4 * pdg.length + 12).order(ByteOrder.LITTLE_ENDIAN);
+        head.put(MAGIC).putInt(compress ? COMPRESSED : 0).putInt(pdg.length);
+        for (int p: pdg)
+            head.putInt(p);
+        head.putLong(rows).putInt(blockRows);
+        write(head.flip());
+    }
+
+    /**
+     * Append a column of doubles.
+     * @param name Name of the column, e.g. px_1.
+     * @param values Value of each row, queried in order of the rows.
+     * @throws IOException
+     */
+    public void addDoubles(String name, IntToDoubleFunction values) throws IOException
+    {
+        long start = begin(name, DOUBLE);
+        for (int r = 0; r < rows; r += blockRows)
+        {
+            int n = Math.min(blockRows, rows - r);
+            block.clear();
+            for (int i = 0; i < n; i++)
+                block.putDouble(values.applyAsDouble(r + i));
+            writeBlock(block.flip());
+        }
+        extents.add(new long[]{start, pos - start});
+    }
+
+    /**
+     * Append a column of integers.
+     * @param name Name of the column, e.g. pdg_1.
+     * @param values Value of each row, queried in order of the rows.
+     * @throws IOException
+     */
+    public void addInts(String name, IntUnaryOperator values) throws IOException
+    {
+        long start = begin(name, INT);
+        for (int r = 0; r < rows; r += blockRows)
+        {
+            int n = Math.min(blockRows, rows - r);
+            block.clear();
+            for (int i = 0; i < n; i++)
+                block.putInt(values.applyAsInt(r + i));
+            writeBlock(block.flip());
+        }
+        extents.add(new long[]{start, pos - start});
+    }
+
+    private long begin(String name, byte type) throws IOException
+    {
+        if (names.contains(name))
+            throw new RuntimeException("Duplicate column " + name + "!");
+        names.add(name);
+        types.add(type);
+        // align raw columns so that they can be viewed in place as typed buffers.
+        if (!compress && pos % 8 != 0)
+            write(ByteBuffer.allocate((int) (8 - pos % 8)));
+        return pos;
+    }
+
+    private void writeBlock(ByteBuffer raw) throws IOException
+    {
+        if (!compress)
+        {
+            write(raw);
+            return;
+        }
+        deflater.reset();
+        deflater.setInput(raw);
+        deflater.finish();
+        int n = 0;
+        while (!deflater.finished())
+        {
+            if (n == deflated.length)
+                deflated = Arrays.copyOf(deflated, deflated.length * 2);
+            n += deflater.deflate(deflated, n, deflated.length - n);
+        }
+        write(ByteBuffer.allocate(4).order(ByteOrder.LITTLE_ENDIAN).putInt(0, n));
+        write(ByteBuffer.wrap(deflated, 0, n));
+    }
+
+    private void write(ByteBuffer b) throws IOException
+    {
+        while (b.hasRemaining())
+            pos += ch.write(b);
+    }
+
+    /**
+     * Write the directory of the columns and close the file.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        long dir = pos;
+        int size = 4;
+        List<byte[]> encoded = new ArrayList<>();
+        for (String name: names)
+        {
+            byte[] b = name.getBytes(StandardCharsets.UTF_8);
+            encoded.add(b);
+            size += 2 + b.length + 1 + 16;
+        }
+        ByteBuffer d = ByteBuffer.allocate(size + 8 + MAGIC.length).order(ByteOrder.LITTLE_ENDIAN);
+        d.putInt(names.size());
+        for (int i = 0; i < names.size(); i++)
+        {
+            d.putShort((short) encoded.get(i).length).put(encoded.get(i)).put(types.get(i));
+            d.putLong(extents.get(i)[0]).putLong(extents.get(i)[1]);
+        }
+        d.putLong(dir).put(MAGIC);
+        write(d.flip());
+        if (deflater != null)
+            deflater.end();
+        ch.close();
+    }
+}
@@ -0,0 +1,347 @@
+package madread;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.Reader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+/**
+ * Cross sections of the runs of a MadGraph process directory. Each run is read on its own: the header of its event
+ * file, whose init block gives the beam energies and cross section and whose <code>&lt;MGGenerationInfo&gt;</code> the
+ * number of events, only up to the first event; or, without an event file, the results.html of the run. The runs are
+ * read concurrently and every source is scanned as a stream, character by character, without loading it whole.
+ */
+public class CrossSections
+{
+    /**
+     * Cross section of a single run.
+     */
+    public static final class Run
+    {
+        /**
+         * Name of the run, e.g. run_01.
+         */
+        public final String run;
+
+        /**
+         * Energies of the beams in GeV, NaN if unknown.
+         */
+        public final double ebeam1, ebeam2;
+
+        /**
+         * Cross section and its uncertainty in pb.
+         */
+        public final double sigma, error;
+
+        /**
+         * Number of events generated, -1 if unknown.
+         */
+        public final long events;
+
+        public Run(String run, double ebeam1, double ebeam2, double sigma, double error, long events)
+        {
+            this.run = run;
+            this.ebeam1 = ebeam1;
+            this.ebeam2 = ebeam2;
+            this.sigma = sigma;
+            this.error = error;
+            this.events = events;
+        }
+    }
+
+    private static final String NUMBER_OF_EVENTS = "Number of Events";
+
+    private final List<Run> runs;
+
+    private CrossSections(List<Run> runs)
+    {
+        this.runs = Collections.unmodifiableList(runs);
+    }
+
+    /**
+     * Read the cross sections of all runs of a process directory, i.e. of every Events/run_* directory, from its event
+     * file if any and otherwise from HTML/run_*&#47;results.html. Runs with neither are left out.
+     * @param processDir MadGraph process directory.
+     * @param threads Number of runs read concurrently.
+     * @return The cross sections in order of the run names.
+     * @throws IOException
+     */
+    public static CrossSections scan(String processDir, int threads) throws IOException
+    {
+        Path events = Paths.get(processDir, "Events");
+        List<Path> dirs;
+        try (Stream<Path> list = Files.list(events))
+        {
+            dirs = list.filter(p -> p.getFileName().toString().startsWith("run_") && Files.isDirectory(p)).sorted()
+                    .collect(Collectors.toList());
+        }
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try
+        {
+            List<ForkJoinTask<Run>> tasks = new ArrayList<>();
+            for (Path dir: dirs)
+                tasks.add(pool.submit(() -> {
+                    try
+                    {
+                        return read(processDir, dir);
+                    }
+                    catch (IOException e)
+                    {
+                        throw new UncheckedIOException(e);
+                    }
+                }));
+            List<Run> runs = new ArrayList<>();
+            for (ForkJoinTask<Run> task: tasks)
+            {
+                Run run = task.join();
+                if (run != null)
+                    runs.add(run);
+            }
+            return new CrossSections(runs);
+        }
+        catch (UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    private static Run read(String processDir, Path dir) throws IOException
+    {
+        String name = dir.getFileName().toString();
+        for (String file: new String[]{"unweighted_events.lhe", "unweighted_events.lhe.gz"})
+            if (Files.isRegularFile(dir.resolve(file)))
+                return fromLhe(name, dir.resolve(file).toString());
+        Path results = Paths.get(processDir, "HTML", name, "results.html");
+        if (!Files.isRegularFile(results))
+            return null;
+        double[] cs = fromResults(results.toString());
+        return cs == null ? null : new Run(name, Double.NaN, Double.NaN, cs[0], cs[1], -1);
+    }
+
+    /**
+     * Read the cross section of a run from the header of its event file, which is read up to the end of the init
+     * block only. The cross section is the sum over the processes of the init block, the uncertainties being added in
+     * quadrature.
+     * @param run Name of the run.
+     * @param lheFilePath Path (in string) to the event file, which may be compressed.
+     * @throws IOException
+     */
+    public static Run fromLhe(String run, String lheFilePath) throws IOException
+    {
+        StringBuilder header = new StringBuilder();
+        long events = -1;
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(LheStream.input(lheFilePath),
+                StandardCharsets.UTF_8), 1 << 14))
+        {
+            String line;
+            while ((line = in.readLine()) != null && !line.startsWith("<event"))
+            {
+                header.append(line).append('\n');
+                int k = line.indexOf(NUMBER_OF_EVENTS);
+                if (k >= 0 && events < 0)
+                    events = Long.parseLong(line.substring(line.indexOf(':', k) + 1).trim());
+                if (line.trim().startsWith("</init>"))
+                    break;
+            }
+        }
+        InitBlock init = InitBlock.parse(header.toString());
+        if (init == null)
+            throw new RuntimeException("No init block in " + lheFilePath + "!");
+        double var = 0;
+        for (int p=0; p<init.processes(); p++)
+            var += init.crossSectionError(p) * init.crossSectionError(p);
+        return new Run(run, init.beamEnergy(0), init.beamEnergy(1), init.totalCrossSection(), Math.sqrt(var), events);
+    }
+
+    /**
+     * Read the cross section of a run from its results.html, given as <code>s= 0.1352 &amp;#177 0.00021 (pb)</code>.
+     * @return The cross section and its uncertainty in pb, or null if there is none.
+     * @throws IOException
+     */
+    public static double[] fromResults(String path) throws IOException
+    {
+        try (Scanner in = new Scanner(path))
+        {
+            while (in.skipPast("s="))
+            {
+                double cs = in.number();
+                if (cs != cs || !in.skipPast("&#177"))
+                    continue;
+                return new double[]{cs, in.number()};
+            }
+            return null;
+        }
+    }
+
+    /**
+     * Read the cross sections listed in the crossx.html of a process directory, given per run as a link to its
+     * results.html, <code>&lt;a href="./HTML/run_01/results.html"&gt; 0.1352 &lt;font face=symbol&gt;&amp;#177
+     * &lt;/font&gt; 0.00021 &lt;/a&gt;</code>.
+     * @return The cross section and its uncertainty in pb of every run in order of listing; the run names are those
+     * of the links, and beam energies and numbers of events are unknown.
+     * @throws IOException
+     */
+    public static CrossSections fromCrossx(String path) throws IOException
+    {
+        List<Run> runs = new ArrayList<>();
+        try (Scanner in = new Scanner(path))
+        {
+            while (in.skipPast("href=\""))
+            {
+                String href = in.until('"');
+                if (!href.endsWith("results.html") || !in.skipPast(">"))
+                    continue;
+                double cs = in.number();
+                if (cs != cs || !in.skipPast("</font>"))
+                    continue;
+                String[] parts = href.split("/");
+                String run = parts.length > 1 ? parts[parts.length - 2] : "";
+                runs.add(new Run(run, Double.NaN, Double.NaN, cs, in.number(), -1));
+            }
+        }
+        return new CrossSections(runs);
+    }
+
+    public List<Run> getRuns()
+    {
+        return runs;
+    }
+
+    /**
+     * Write the table, one row per run, creating the folder if absent.
+     * @param file Path (in string) of the .csv file.
+     * @throws IOException
+     */
+    public void write(String file) throws IOException
+    {
+        try (CsvWriter out = new CsvWriter(new File(file),
+                "run, ebeam1 (GeV), ebeam2 (GeV), cross section (pb), uncertainty (pb), events", 1 << 16))
+        {
+            for (Run r: runs)
+            {
+                out.add(r.run).add(r.ebeam1).add(r.ebeam2).add(r.sigma).add(r.error).add(r.events);
+                out.endRow();
+            }
+        }
+    }
+
+    /**
+     * Character stream of a text file searched forwards for markers.
+     */
+    private static final class Scanner implements AutoCloseable
+    {
+        private final Reader in;
+
+        /**
+         * Character read ahead and not consumed, or -2 if none.
+         */
+        private int next = -2;
+
+        Scanner(String path) throws IOException
+        {
+            in = new BufferedReader(new InputStreamReader(Files.newInputStream(Paths.get(path)),
+                    StandardCharsets.UTF_8), 1 << 14);
+        }
+
+        private int read() throws IOException
+        {
+            if (next != -2)
+            {
+                int c = next;
+                next = -2;
+                return c;
+            }
+            return in.read();
+        }
+
+        /**
+         * Consume the stream up to and including the next occurrence of the marker.
+         * @return Whether the marker was found.
+         */
+        boolean skipPast(String marker) throws IOException
+        {
+            int m = marker.length();
+            // the last m characters read, as a ring.
+            char[] last = new char[m];
+            long n = 0;
+            int c;
+            while ((c = read()) >= 0)
+            {
+                last[(int) (n++ % m)] = (char) c;
+                if (n >= m && c == marker.charAt(m - 1) && matches(last, n, marker))
+                    return true;
+            }
+            return false;
+        }
+
+        private static boolean matches(char[] last, long n, String marker)
+        {
+            int m = marker.length();
+            for (int k=0; k<m; k++)
+                if (last[(int) ((n - m + k) % m)] != marker.charAt(k))
+                    return false;
+            return true;
+        }
+
+        /**
+         * @return The characters up to the given one, which is consumed.
+         */
+        String until(char end) throws IOException
+        {
+            StringBuilder s = new StringBuilder();
+            int c;
+            while ((c = read()) >= 0 && c != end)
+                s.append((char) c);
+            return s.toString();
+        }
+
+        /**
+         * Consume a number following optional blanks.
+         * @return The number, or NaN if none follows.
+         */
+        double number() throws IOException
+        {
+            int c = read();
+            while (c == ' ' || c == '\t' || c == '\n' || c == '\r')
+                c = read();
+            StringBuilder s = new StringBuilder();
+            while (c >= '0' && c <= '9' || c == '.' || c == '-' || c == '+' || c == 'e' || c == 'E')
+            {
+                s.append((char) c);
+                c = read();
+            }
+            next = c;
+            try
+            {
+                return s.length() == 0 ? Double.NaN : Double.parseDouble(s.toString());
+            }
+            catch (NumberFormatException e)
+            {
+                return Double.NaN;
+            }
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            in.close();
+        }
+    }
+}
@@ -0,0 +1,66 @@
+package madread;
+
+import static madread.Print.*;
+
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Export of parsed events to the sim_momenta_*.csv files, one per particle. All files are written in a single pass
+ * over the events, each through its own <code>CsvWriter</code>.
+ */
+public abstract class CsvExport
+{
+    /**
+     * Header line of the momenta files.
+     */
+    public static final String MOMENTA_HEADER = "E (GeV), px (GeV), py (GeV), pz (GeV)";
+
+    /**
+     * Write the momenta of the events into sim_momenta_*.csv, numbered from 1, and report the throughput.
+     * @param store The events.
+     * @param path Directory of the files, e.g. ./src/madread/pp_a_tau-tau+/run_01/sim_momenta/
+     * @return Number of bytes written.
+     * @throws IOException
+     */
+    public static long momenta(EventStore store, String path) throws IOException
+    {
+        long start = System.nanoTime();
+        int multiplicity = store.multiplicity;
+        if (multiplicity == 0)
+            throw new RuntimeException("Events of varying length cannot be written per particle!");
+        CsvWriter[] outs = new CsvWriter[multiplicity];
+        long bytes = 0;
+        try
+        {
+            for (int i=0; i<multiplicity; i++)
+                outs[i] = new CsvWriter(new File(String.format("%ssim_momenta_%d.csv", path, i+1)), MOMENTA_HEADER);
+            for (int e=0; e<store.size(); e++)
+                for (int i=0; i<multiplicity; i++)
+                {
+                    outs[i].add(store.e(e, i)).add(store.px(e, i)).add(store.py(e, i)).add(store.pz(e, i));
+                    outs[i].endRow();
+                }
+        }
+        finally
+        {
+            for (CsvWriter out: outs)
+                if (out != null)
+                {
+                    out.close();
+                    bytes += out.bytesWritten();
+                }
+        }
+        report(bytes, System.nanoTime() - start);
+        return bytes;
+    }
+
+    /**
+     * Print the number of bytes written and the rate of writing.
+     */
+    static void report(long bytes, long nanos)
+    {
+        println(String.format("Wrote %d bytes in %.3f s (%.1f MB/s).", bytes, nanos / 1e9,
+                bytes / 1e6 / (nanos / 1e9)));
+    }
+}
@@ -0,0 +1,127 @@
+package madread;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+
+import madread.utils.Ascii;
+
+/**
+ * Writer of a .csv file through a large reusable byte buffer, numbers being formatted straight into the buffer. Fields
+ * of a row are separated by commas as they are added, and <code>endRow</code> terminates the row.
+ */
+public class CsvWriter implements Closeable
+{
+    /**
+     * Default size in bytes of the buffer.
+     */
+    public static final int BUFFER_SIZE = 1 << 20;
+
+    private final OutputStream out;
+
+    private final byte[] buf;
+
+    private int pos;
+
+    private boolean rowStarted;
+
+    private long bytesWritten;
+
+    /**
+     * @param file The .csv file, whose directory is created if absent.
+     * @param header Header line naming the columns, without line terminator.
+     * @throws IOException
+     */
+    public CsvWriter(File file, String header) throws IOException
+    {
+        this(file, header, BUFFER_SIZE);
+    }
+
+    public CsvWriter(File file, String header, int bufferSize) throws IOException
+    {
+        File parent = file.getAbsoluteFile().getParentFile();
+        if (parent != null)
+            parent.mkdirs();
+        this.out = new FileOutputStream(file.getAbsoluteFile());
+        this.buf = new byte[Math.max(bufferSize, 256)];
+        for (int i = 0; i < header.length(); i++)
+        {
+            ensure(1);
+            buf[pos++] = (byte) header.charAt(i);
+        }
+        endRow();
+    }
+
+    public CsvWriter add(double v) throws IOException
+    {
+        separate(Ascii.MAX_DOUBLE_LENGTH);
+        pos = Ascii.putDouble(buf, pos, v);
+        return this;
+    }
+
+    public CsvWriter add(long v) throws IOException
+    {
+        separate(Ascii.MAX_LONG_LENGTH);
+        pos = Ascii.putLong(buf, pos, v);
+        return this;
+    }
+
+    /**
+     * Add a field verbatim; it is not quoted, so it must not contain commas or line terminators.
+     */
+    public CsvWriter add(CharSequence s) throws IOException
+    {
+        separate(0);
+        for (int i = 0; i < s.length(); i++)
+        {
+            ensure(1);
+            buf[pos++] = (byte) s.charAt(i);
+        }
+        return this;
+    }
+
+    public void endRow() throws IOException
+    {
+        ensure(1);
+        buf[pos++] = '\n';
+        rowStarted = false;
+    }
+
+    private void separate(int room) throws IOException
+    {
+        ensure(room + 1);
+        if (rowStarted)
+            buf[pos++] = ',';
+        rowStarted = true;
+    }
+
+    private void ensure(int n) throws IOException
+    {
+        if (buf.length - pos < n)
+            flush();
+    }
+
+    public void flush() throws IOException
+    {
+        out.write(buf, 0, pos);
+        bytesWritten += pos;
+        pos = 0;
+    }
+
+    /**
+     * @return Number of bytes written so far, including those still buffered.
+     */
+    public long bytesWritten()
+    {
+        return bytesWritten + pos;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        flush();
+        out.close();
+    }
+}
@@ -0,0 +1,127 @@
+package madread;
+
+/**
+ * Selection of events evaluated within the parsing loop, so that rejected events are never stored or written. The
+ * tests are applied as early as the data allow: the header line first, then each particle line as soon as it is
+ * scanned, the remaining lines of a rejected event being skipped, and finally the whole event.
+ */
+public interface EventFilter
+{
+    /**
+     * Filter accepting every event.
+     */
+    EventFilter ALL = new EventFilter() {};
+
+    /**
+     * Test the header line of an event, i.e. its weight, scale and couplings.
+     * @param header Scanner holding the header line.
+     * @return Whether the event may be accepted.
+     */
+    default boolean acceptHeader(LineScanner header)
+    {
+        return true;
+    }
+
+    /**
+     * Test one particle of an event as soon as its line is scanned.
+     * @param index Slot of the particle in the selection, or its position in the event, counted from 0, if every
+     * particle is selected.
+     * @param particle Scanner holding the particle line.
+     * @return Whether the event may be accepted.
+     */
+    default boolean acceptParticle(int index, LineScanner particle)
+    {
+        return true;
+    }
+
+    /**
+     * Test an event once all its particles are stored, e.g. on the invariant mass of a pair.
+     * @param store Store holding the event.
+     * @param event Index of the event in the store.
+     * @return Whether the event is accepted.
+     */
+    default boolean acceptEvent(EventStore store, int event)
+    {
+        return true;
+    }
+
+    /**
+     * @return Filter accepting the events accepted by both this and the other filter.
+     */
+    default EventFilter and(EventFilter other)
+    {
+        EventFilter self = this;
+        return new EventFilter()
+        {
+            @Override
+            public boolean acceptHeader(LineScanner header)
+            {
+                return self.acceptHeader(header) && other.acceptHeader(header);
+            }
+
+            @Override
+            public boolean acceptParticle(int index, LineScanner particle)
+            {
+                return self.acceptParticle(index, particle) && other.acceptParticle(index, particle);
+            }
+
+            @Override
+            public boolean acceptEvent(EventStore store, int event)
+            {
+                return self.acceptEvent(store, event) && other.acceptEvent(store, event);
+            }
+        };
+    }
+
+    /**
+     * @return Filter on the weight of events.
+     */
+    static EventFilter weight(double min, double max)
+    {
+        return new EventFilter()
+        {
+            @Override
+            public boolean acceptHeader(LineScanner header)
+            {
+                return header.weight() >= min && header.weight() <= max;
+            }
+        };
+    }
+
+    /**
+     * @return Filter requiring every particle of the given PDG code and status to have at least the given transverse
+     * momentum in GeV.
+     */
+    static EventFilter minPt(int pdg, int status, double min)
+    {
+        return new EventFilter()
+        {
+            @Override
+            public boolean acceptParticle(int index, LineScanner p)
+            {
+                return p.pdg() != pdg || p.status() != status || p.px() * p.px() + p.py() * p.py() >= min * min;
+            }
+        };
+    }
+
+    /**
+     * @return Filter requiring the invariant mass in GeV of the pair of particles at the given positions of the event,
+     * counted from 0, to lie within the given window.
+     */
+    static EventFilter massWindow(int a, int b, double min, double max)
+    {
+        return new EventFilter()
+        {
+            @Override
+            public boolean acceptEvent(EventStore s, int e)
+            {
+                double en = s.e(e, a) + s.e(e, b);
+                double px = s.px(e, a) + s.px(e, b);
+                double py = s.py(e, a) + s.py(e, b);
+                double pz = s.pz(e, a) + s.pz(e, b);
+                double m = Math.sqrt(Math.max(en * en - px * px - py * py - pz * pz, 0));
+                return m >= min && m <= max;
+            }
+        };
+    }
+}
@@ -0,0 +1,22 @@
+package madread;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+
+/**
+ * Receiver of the events isolated by a streaming reader of a .lhe file.
+ */
+@FunctionalInterface
+public interface EventHandler
+{
+    /**
+     * Consume a single event. The bytes in <code>[from, to)</code> of the buffer are the contents between the
+     * <code>&lt;event&gt;</code> and <code>&lt;/event&gt;</code> tags. The buffer is reused for the next event, so
+     * whatever is needed must be extracted or copied before returning.
+     * @param buf Buffer holding the event.
+     * @param from Index of the first byte of the event.
+     * @param to Index past the last byte of the event.
+     * @throws IOException If the handler writes out and fails to.
+     */
+    void event(ByteBuffer buf, int from, int to) throws IOException;
+}
@@ -0,0 +1,263 @@
+package madread;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.LongBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+/**
+ * Index of the byte offsets of the events of an uncompressed .lhe file, giving direct access to any event or slice of
+ * events without reading those before. The index is built by a single scan for opening event tags and saved next to
+ * the file as <code>&lt;file&gt;.idx</code>, which is reused as long as the size and modification time of the file
+ * it records are unchanged. The saved offsets are mapped rather than loaded.
+ */
+public class EventIndex implements Closeable
+{
+    static final byte[] MAGIC = "MADIDX01".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Size in bytes of the magic number, the size and modification time of the indexed file and the number of events.
+     */
+    private static final int HEADER_SIZE = 32;
+
+    private static final byte[] OPEN = "<event".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] CLOSE = "</event>".getBytes(StandardCharsets.US_ASCII);
+
+    private final FileChannel ch;
+
+    /**
+     * Offset of the opening tag of each event, followed by the size of the file.
+     */
+    private final LongBuffer offsets;
+
+    private final long events;
+
+    private EventIndex(FileChannel ch, LongBuffer offsets)
+    {
+        this.ch = ch;
+        this.offsets = offsets;
+        events = offsets.capacity() - 1;
+    }
+
+    /**
+     * Open the index of a file, building and saving it if there is no valid one. A failure to save the index, e.g. in
+     * a read-only directory, only costs rebuilding it next time.
+     * @param lheFilePath Path (in string) to the uncompressed .lhe file.
+     * @return The index, holding the file open until closed.
+     * @throws IOException
+     */
+    public static EventIndex open(String lheFilePath) throws IOException
+    {
+        if (LheStream.isCompressed(lheFilePath))
+            throw new RuntimeException("Compressed file " + lheFilePath + " cannot be indexed!");
+        Path file = Paths.get(lheFilePath);
+        Path idx = Paths.get(lheFilePath + ".idx");
+        FileChannel ch = FileChannel.open(file, StandardOpenOption.READ);
+        try
+        {
+            long size = ch.size();
+            long modified = Files.getLastModifiedTime(file).toMillis();
+            LongBuffer offsets = load(idx, size, modified);
+            if (offsets == null)
+            {
+                long[] scanned = scan(ch);
+                try
+                {
+                    save(idx, size, modified, scanned);
+                }
+                catch (IOException e)
+                {
+                    // the index is only a cache.
+                }
+                offsets = LongBuffer.wrap(scanned);
+            }
+            return new EventIndex(ch, offsets);
+        }
+        catch (IOException | RuntimeException e)
+        {
+            ch.close();
+            throw e;
+        }
+    }
+
+    /**
+     * @return The saved offsets if the index exists and matches the file, otherwise null.
+     */
+    private static LongBuffer load(Path idx, long size, long modified) throws IOException
+    {
+        if (!Files.isRegularFile(idx))
+            return null;
+        try (FileChannel in = FileChannel.open(idx, StandardOpenOption.READ))
+        {
+            if (in.size() < HEADER_SIZE)
+                return null;
+            ByteBuffer head = ByteBuffer.allocate(HEADER_SIZE).order(ByteOrder.LITTLE_ENDIAN);
+            while (head.hasRemaining() && in.read(head) >= 0);
+            head.flip();
+            byte[] magic = new byte[MAGIC.length];
+            head.get(magic);
+            if (!Arrays.equals(magic, MAGIC) || head.getLong() != size || head.getLong() != modified)
+                return null;
+            long n = head.getLong();
+            if (in.size() != HEADER_SIZE + (n + 1) * Long.BYTES)
+                return null;
+            // the mapping outlives the channel.
+            return in.map(FileChannel.MapMode.READ_ONLY, HEADER_SIZE, (n + 1) * Long.BYTES)
+                    .order(ByteOrder.LITTLE_ENDIAN).asLongBuffer();
+        }
+    }
+
+    private static void save(Path idx, long size, long modified, long[] offsets) throws IOException
+    {
+        ByteBuffer buf = ByteBuffer.allocate(HEADER_SIZE + offsets.length * Long.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        buf.put(MAGIC).putLong(size).putLong(modified).putLong(offsets.length - 1);
+        buf.asLongBuffer().put(offsets);
+        buf.clear();
+        try (FileChannel out = FileChannel.open(idx, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                StandardOpenOption.TRUNCATE_EXISTING))
+        {
+            while (buf.hasRemaining())
+                out.write(buf);
+        }
+    }
+
+    /**
+     * @return Offset of every opening event tag of the file, followed by its size.
+     */
+    static long[] scan(FileChannel ch) throws IOException
+    {
+        long size = ch.size();
+        long[] offsets = new long[1024];
+        int n = 0;
+        ByteBuffer buf = ByteBuffer.allocate(1 << 20);
+        long pos = 0;
+        while (pos < size)
+        {
+            buf.clear();
+            int read = 0;
+            while (buf.hasRemaining() && pos + read < size)
+            {
+                int r = ch.read(buf, pos + read);
+                if (r < 0)
+                    break;
+                read += r;
+            }
+            boolean last = pos + read >= size;
+            // leave a tag cut by the end of the buffer to the next.
+            int scan = last ? read : read - OPEN.length;
+            byte[] b = buf.array();
+            for (int i=0; i<scan; i++)
+                if (b[i] == '<' && isOpenTag(b, i, read))
+                {
+                    if (n + 1 == offsets.length)
+                        offsets = Arrays.copyOf(offsets, offsets.length * 2);
+                    offsets[n++] = pos + i;
+                }
+            if (last)
+                break;
+            pos += scan;
+        }
+        offsets[n++] = size;
+        return Arrays.copyOf(offsets, n);
+    }
+
+    private static boolean isOpenTag(byte[] b, int i, int n)
+    {
+        if (i + OPEN.length >= n)
+            return false;
+        for (int k=1; k<OPEN.length; k++)
+            if (b[i + k] != OPEN[k])
+                return false;
+        byte c = b[i + OPEN.length];
+        return c == '>' || c == ' ' || c == '\t' || c == '\n' || c == '\r';
+    }
+
+    /**
+     * @return Number of events of the file.
+     */
+    public long size()
+    {
+        return events;
+    }
+
+    /**
+     * @return Offset of the opening tag of an event counted from 0, or the size of the file for the number of events.
+     */
+    public long offset(long event)
+    {
+        if (event < 0 || event > events)
+            throw new IndexOutOfBoundsException("Event " + event + " of " + events + "!");
+        return offsets.get((int) event);
+    }
+
+    /**
+     * Hand a single event to the handler.
+     * @param n Position of the event in the file, counted from 0.
+     * @throws IOException
+     */
+    public void readEvent(long n, EventHandler handler) throws IOException
+    {
+        readEvents(n, n + 1, handler);
+    }
+
+    /**
+     * Hand the events of a slice to the handler in order, mapping only the bytes of the slice.
+     * @param from Position of the first event, counted from 0.
+     * @param to Position past the last event.
+     * @return The number of events read.
+     * @throws IOException
+     */
+    public long readEvents(long from, long to, EventHandler handler) throws IOException
+    {
+        if (from > to)
+            throw new IndexOutOfBoundsException("Events from " + from + " to " + to + "!");
+        long start = offset(from), end = offset(to);
+        if (start == end)
+            return 0;
+        int window = (int) Math.min(MappedLheReader.WINDOW_SIZE, end - start);
+        return new MappedLheReader(ch, start, end, window).read(handler);
+    }
+
+    /**
+     * @return The text of an event from its opening to its closing tag, both included.
+     * @throws IOException
+     */
+    public byte[] bytes(long n) throws IOException
+    {
+        long start = offset(n), end = offset(n + 1);
+        ByteBuffer buf = ByteBuffer.allocate((int) (end - start));
+        while (buf.hasRemaining() && ch.read(buf, start + buf.position()) >= 0);
+        byte[] b = buf.array();
+        // drop whatever follows the closing tag, e.g. the end of the file.
+        int close = lastIndexOf(b, CLOSE);
+        return close < 0 ? b : Arrays.copyOf(b, close + CLOSE.length);
+    }
+
+    private static int lastIndexOf(byte[] b, byte[] s)
+    {
+        outer:
+        for (int i = b.length - s.length; i >= 0; i--)
+        {
+            for (int k = 0; k < s.length; k++)
+                if (b[i + k] != s[k])
+                    continue outer;
+            return i;
+        }
+        return -1;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        ch.close();
+    }
+}
@@ -0,0 +1,274 @@
+package madread;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Handler parsing the particle lines of each event handed to it into an <code>EventStore</code>. The first line of an
+ * event is its header, giving the number of particles; the particles follow, one per line. Particles are picked by a
+ * <code>ParticleSelector</code>, each selected one being stored at the position of its slot, and lines of particles
+ * not selected are only scanned for their PDG code and status. Events rejected by the filter are discarded as soon as
+ * a test fails, without scanning the rest of their lines. The header line is stored along with the particles, and so
+ * are the multi-weights of an <code>&lt;rwgt&gt;</code> or <code>&lt;weights&gt;</code> block following them. If an
+ * <code>Accumulator</code> is attached, accepted events are filled into it and dropped instead of being kept in the
+ * store.
+ */
+public class EventParser implements EventHandler
+{
+    private static final byte[] RWGT = "<rwgt>".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] WGT = "<wgt".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] RWGT_END = "</rwgt>".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] WEIGHTS = "<weights>".getBytes(StandardCharsets.US_ASCII);
+
+    private final EventStore store;
+
+    private final LineScanner scanner;
+
+    private final EventFilter filter;
+
+    private final ParticleSelector selector;
+
+    private Accumulator accumulator;
+
+    private long rejected;
+
+    private long unmatched;
+
+    /**
+     * @param store Store to be filled, whose multiplicity must be the number of slots of the selector.
+     * @param strict Whether particle lines are validated as strictly as by the particle-line regex.
+     * @param filter Selection of the events stored.
+     * @param selector Selection of the particles stored.
+     */
+    public EventParser(EventStore store, boolean strict, EventFilter filter, ParticleSelector selector)
+    {
+        if (store.multiplicity != selector.size())
+            throw new RuntimeException("Store of multiplicity " + store.multiplicity + " for " + selector.size()
+                    + " selected particles!");
+        this.store = store;
+        this.scanner = new LineScanner(strict);
+        this.filter = filter;
+        this.selector = selector;
+    }
+
+    @Override
+    public void event(ByteBuffer buf, int from, int to)
+    {
+        int start = LineScanner.skipSpace(buf, from, to);
+        int line = LineScanner.lineEnd(buf, start, to);
+        if (!scanner.scanHeader(buf, start, line))
+            throw new RuntimeException("Invalid event header after event " + (store.size() + rejected + unmatched)
+                    + "!");
+        if (!filter.acceptHeader(scanner))
+        {
+            rejected++;
+            return;
+        }
+        int nup = scanner.nup();
+        double weight = scanner.weight();
+        store.header(scanner);
+        if (selector.isAll())
+        {
+            for (int i=1; i<=nup; i++)
+            {
+                line = scanParticle(scanner, buf, line, to, i);
+                if (!filter.acceptParticle(i-1, scanner))
+                {
+                    reject();
+                    return;
+                }
+                store.add(scanner);
+            }
+        }
+        else
+        {
+            store.reserve(selector.size());
+            long taken = 0;
+            for (int i=1; i<=nup && taken != selector.complete(); i++)
+            {
+                int s = line + 1;
+                line = s > to ? to : LineScanner.lineEnd(buf, s, to);
+                if (s > to || !scanner.scanIds(buf, s, line))
+                    throw new RuntimeException("Invalid kinematical entry of particle " + i);
+                int slot = selector.slot(scanner.pdg(), scanner.status(), taken);
+                if (slot < 0)
+                    continue;
+                if (!scanner.scan(buf, s, line))
+                    throw new RuntimeException("Invalid kinematical entry of particle " + i);
+                if (!filter.acceptParticle(slot, scanner))
+                {
+                    reject();
+                    return;
+                }
+                store.set(slot, scanner);
+                taken |= 1L << slot;
+            }
+            if (taken != selector.complete())
+            {
+                // the event is not of the process selected.
+                store.discardEvent();
+                unmatched++;
+                return;
+            }
+        }
+        scanWeights(buf, line, to);
+        if (!filter.acceptEvent(store, store.size()))
+        {
+            reject();
+            return;
+        }
+        if (accumulator != null)
+        {
+            accumulator.fill(store, store.size(), weight);
+            store.discardEvent();
+            return;
+        }
+        store.endEvent();
+    }
+
+    /**
+     * Fill accepted events into the given accumulator instead of keeping them in the store.
+     * @return This parser.
+     */
+    public EventParser accumulate(Accumulator accumulator)
+    {
+        this.accumulator = accumulator;
+        return this;
+    }
+
+    /**
+     * Store the multi-weights of the event, given either as <code>&lt;wgt id='..'&gt; w &lt;/wgt&gt;</code> tags of
+     * an <code>&lt;rwgt&gt;</code> block or as a list of numbers in a <code>&lt;weights&gt;</code> block.
+     */
+    private void scanWeights(ByteBuffer buf, int from, int to)
+    {
+        for (int i = from; i < to; i++)
+        {
+            if (buf.get(i) != '<')
+                continue;
+            if (matches(buf, i, to, RWGT))
+            {
+                int end = indexOf(buf, RWGT_END, i, to);
+                end = end < 0 ? to : end;
+                for (int t = i + RWGT.length; (t = indexOf(buf, WGT, t, end)) >= 0; )
+                {
+                    int s = indexOf(buf, (byte) '>', t, end) + 1;
+                    int e = indexOf(buf, (byte) '<', s, end);
+                    if (s == 0 || e < 0)
+                        break;
+                    store.addWeight(number(buf, s, e));
+                    t = e;
+                }
+                return;
+            }
+            if (matches(buf, i, to, WEIGHTS))
+            {
+                int end = indexOf(buf, (byte) '<', i + WEIGHTS.length, to);
+                end = end < 0 ? to : end;
+                int s = LineScanner.skipSpace(buf, i + WEIGHTS.length, end);
+                while (s < end)
+                {
+                    int e = s;
+                    while (e < end && buf.get(e) > ' ')
+                        e++;
+                    store.addWeight(number(buf, s, e));
+                    s = LineScanner.skipSpace(buf, e, end);
+                }
+                return;
+            }
+        }
+    }
+
+    private double number(ByteBuffer buf, int from, int to)
+    {
+        from = LineScanner.skipSpace(buf, from, to);
+        while (to > from && buf.get(to - 1) <= ' ')
+            to--;
+        double w = scanner.parseDouble(buf, from, to);
+        if (!scanner.isValid())
+            throw new RuntimeException("Invalid multi-weight after event " + (store.size() + rejected + unmatched)
+                    + "!");
+        return w;
+    }
+
+    private static boolean matches(ByteBuffer buf, int i, int to, byte[] tag)
+    {
+        if (i + tag.length > to)
+            return false;
+        for (int k = 0; k < tag.length; k++)
+            if (buf.get(i + k) != tag[k])
+                return false;
+        return true;
+    }
+
+    /**
+     * @return Index of the first occurrence of the tag in the range, or -1 if none.
+     */
+    private static int indexOf(ByteBuffer buf, byte[] tag, int from, int to)
+    {
+        for (int i = from; i < to; i++)
+            if (buf.get(i) == tag[0] && matches(buf, i, to, tag))
+                return i;
+        return -1;
+    }
+
+    private static int indexOf(ByteBuffer buf, byte b, int from, int to)
+    {
+        for (int i = from; i < to; i++)
+            if (buf.get(i) == b)
+                return i;
+        return -1;
+    }
+
+    private void reject()
+    {
+        store.discardEvent();
+        rejected++;
+    }
+
+    public EventStore getStore()
+    {
+        return store;
+    }
+
+    /**
+     * @return The accumulator attached, or null if events are kept in the store.
+     */
+    public Accumulator getAccumulator()
+    {
+        return accumulator;
+    }
+
+    /**
+     * @return Number of events rejected by the filter.
+     */
+    public long rejected()
+    {
+        return rejected;
+    }
+
+    /**
+     * @return Number of events lacking some of the selected particles.
+     */
+    public long unmatched()
+    {
+        return unmatched;
+    }
+
+    /**
+     * Scan the particle line following the line ending at <code>prevEnd</code>.
+     * @param i Position of the particle in the event, counted from 1.
+     * @return Index of the end of the particle line.
+     */
+    static int scanParticle(LineScanner scanner, ByteBuffer buf, int prevEnd, int to, int i)
+    {
+        int start = prevEnd + 1;
+        int end = start > to ? to : LineScanner.lineEnd(buf, start, to);
+        if (start > to || !scanner.scan(buf, start, end))
+            throw new RuntimeException("Invalid kinematical entry of particle " + i);
+        return end;
+    }
+}
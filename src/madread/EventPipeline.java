@@ -0,0 +1,668 @@
+package madread;
+
+import static madread.Print.*;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Parsing of a .lhe file as a pipeline of concurrent stages, so that reading, parsing, computing and writing overlap
+ * and the first events are written out as soon as they are parsed rather than once the whole file is. The file is
+ * read ahead on a thread of its own (inflated, if compressed, on another) and split into batches of events, which
+ * are parsed on several threads, have their observables computed and are finally handed in the order of the file to
+ * the outputs on a single thread. The stages are connected by queues of batches drawn from a fixed pool and returned
+ * to it once written, so that memory is bounded by the pool and a slow stage holds back those before it instead of
+ * letting batches pile up.
+ */
+public class EventPipeline
+{
+    /**
+     * Default number of events per batch.
+     */
+    public static final int BATCH_EVENTS = 1024;
+
+    /**
+     * Number of blocks of the file read ahead of the splitting.
+     */
+    private static final int PREFETCH_BLOCKS = 16;
+
+    /**
+     * Output of the pipeline, handed the batches in the order of the file on a single thread.
+     */
+    public interface Sink extends Closeable
+    {
+        /**
+         * @param events Accepted events of the batch; the store is reused once this returns.
+         * @param values Values of the observables computed, indexed by observable and then event, valid for the
+         *               events of the store only.
+         * @throws IOException
+         */
+        void write(EventStore events, double[][] values) throws IOException;
+    }
+
+    private static final Batch END = new Batch();
+
+    private final String lheFilePath;
+
+    private final EventFilter filter;
+
+    private final ParticleSelector selector;
+
+    private int parseThreads = Math.max(1, Runtime.getRuntime().availableProcessors() - 3);
+
+    private int computeThreads = 1;
+
+    private int batchEvents = BATCH_EVENTS;
+
+    private int batches;
+
+    private final List<String> names = new ArrayList<>();
+
+    private final List<Observable> observables = new ArrayList<>();
+
+    private Accumulator accumulator;
+
+    private String momentaPath, observablesFile;
+
+    private final List<Sink> sinks = new ArrayList<>();
+
+    private boolean retain;
+
+    // Outcome of the last run below.
+
+    private String header;
+
+    private long bytesRead, events, rejected, unmatched;
+
+    private long firstOutputNanos = -1;
+
+    /**
+     * Time in nanoseconds each stage spent working, summed over its threads: splitting, along with waiting for the
+     * reading, parsing, computing and writing.
+     */
+    private final AtomicLong[] busy = {new AtomicLong(), new AtomicLong(), new AtomicLong(), new AtomicLong()};
+
+    /**
+     * @param lheFilePath Path (in string) to the .lhe file, which may be compressed.
+     * @param filter Selection of the events.
+     * @param selector Selection of the particles.
+     */
+    public EventPipeline(String lheFilePath, EventFilter filter, ParticleSelector selector)
+    {
+        this.lheFilePath = lheFilePath;
+        this.filter = filter;
+        this.selector = selector;
+    }
+
+    /**
+     * @param parse Number of threads parsing batches.
+     * @param compute Number of threads computing the observables of batches.
+     * @return This pipeline.
+     */
+    public EventPipeline threads(int parse, int compute)
+    {
+        if (parse < 1 || compute < 1)
+            throw new RuntimeException("Every stage needs a thread!");
+        parseThreads = parse;
+        computeThreads = compute;
+        return this;
+    }
+
+    /**
+     * @param events Number of events per batch.
+     * @param batches Number of batches in flight at most, by default twice the threads parsing and computing plus 4.
+     * @return This pipeline.
+     */
+    public EventPipeline batches(int events, int batches)
+    {
+        if (events < 1 || batches < 2)
+            throw new RuntimeException("A pipeline needs events in every batch and at least two batches!");
+        batchEvents = events;
+        this.batches = batches;
+        return this;
+    }
+
+    /**
+     * Compute an observable of every accepted event, handed to the outputs along with the events.
+     * @param name Name of the observable, heading its column in the file of <code>observables</code>.
+     * @return This pipeline.
+     */
+    public EventPipeline compute(String name, Observable observable)
+    {
+        names.add(name);
+        observables.add(observable);
+        return this;
+    }
+
+    /**
+     * Fill every accepted event into an accumulator, each thread computing into a partial one merged at the end.
+     * @return This pipeline.
+     */
+    public EventPipeline accumulate(Accumulator accumulator)
+    {
+        this.accumulator = accumulator;
+        return this;
+    }
+
+    /**
+     * Write the momenta of the events into sim_momenta_*.csv, as <code>MadReader.parse</code> does.
+     * @param path Directory of the files, e.g. ./src/madread/pp_a_tau-tau+/run_01/sim_momenta/
+     * @return This pipeline.
+     */
+    public EventPipeline momenta(String path)
+    {
+        momentaPath = path;
+        return this;
+    }
+
+    /**
+     * Write the observables computed into a .csv file, one column per observable and one row per event.
+     * @param file Path (in string) of the file.
+     * @return This pipeline.
+     */
+    public EventPipeline observables(String file)
+    {
+        observablesFile = file;
+        return this;
+    }
+
+    /**
+     * Hand the batches to an output of one's own, closed at the end of the run.
+     * @return This pipeline.
+     */
+    public EventPipeline to(Sink sink)
+    {
+        sinks.add(sink);
+        return this;
+    }
+
+    /**
+     * Keep the accepted events, returned by <code>run</code>, in addition to writing them.
+     * @return This pipeline.
+     */
+    public EventPipeline retain()
+    {
+        retain = true;
+        return this;
+    }
+
+    /**
+     * Run the pipeline over the file.
+     * @return The accepted events if retained, otherwise null.
+     * @throws IOException
+     */
+    public EventStore run() throws IOException
+    {
+        if (momentaPath != null && selector.isAll())
+            throw new RuntimeException("Events of varying length cannot be written per particle!");
+        header = null;
+        bytesRead = events = rejected = unmatched = 0;
+        firstOutputNanos = -1;
+        for (AtomicLong b: busy)
+            b.set(0);
+        int pool = batches != 0 ? batches : 2 * (parseThreads + computeThreads) + 4;
+        BlockingQueue<Batch> free = new ArrayBlockingQueue<>(pool);
+        for (int i=0; i<pool; i++)
+            free.add(new Batch(new EventParser(new EventStore(selector.size(), batchEvents, false), true, filter,
+                    selector)));
+        // as many batches as exist, along with the ends, always fit in a queue: only the pool holds stages back.
+        BlockingQueue<Batch> split = new ArrayBlockingQueue<>(pool + parseThreads);
+        BlockingQueue<Batch> parsed = new ArrayBlockingQueue<>(pool + computeThreads);
+        BlockingQueue<Batch> computed = new ArrayBlockingQueue<>(pool + 1);
+        List<Sink> outs = new ArrayList<>(sinks);
+        EventStore store = retain ? new EventStore(selector.size()) : null;
+        long start = System.nanoTime();
+        ExecutorService threads = Executors.newFixedThreadPool(2 + parseThreads + computeThreads);
+        try
+        {
+            if (momentaPath != null)
+                outs.add(new MomentaSink(momentaPath, selector.size()));
+            if (observablesFile != null)
+                outs.add(new ObservablesSink(observablesFile, names));
+            CompletionService<Void> done = new ExecutorCompletionService<>(threads);
+            List<Callable<Void>> stages = new ArrayList<>();
+            stages.add(() -> split(free, split));
+            AtomicInteger parsing = new AtomicInteger(parseThreads);
+            for (int i=0; i<parseThreads; i++)
+                stages.add(() -> parse(split, parsed, parsing));
+            AtomicInteger computing = new AtomicInteger(computeThreads);
+            for (int i=0; i<computeThreads; i++)
+                stages.add(() -> compute(parsed, computed, computing));
+            stages.add(() -> write(computed, free, outs, store, start));
+            for (Callable<Void> stage: stages)
+                done.submit(stage);
+            // the first failure, wherever it is, stops every stage.
+            for (int i=0; i<stages.size(); i++)
+                try
+                {
+                    done.take().get();
+                }
+                catch (ExecutionException e)
+                {
+                    Throwable cause = e.getCause();
+                    if (cause instanceof IOException)
+                        throw (IOException) cause;
+                    if (cause instanceof UncheckedIOException)
+                        throw ((UncheckedIOException) cause).getCause();
+                    if (cause instanceof RuntimeException)
+                        throw (RuntimeException) cause;
+                    throw new RuntimeException(cause);
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new InterruptedIOException("Interrupted while running the pipeline!");
+                }
+        }
+        finally
+        {
+            threads.shutdownNow();
+            IOException failure = null;
+            for (Sink out: outs)
+                try
+                {
+                    out.close();
+                }
+                catch (IOException e)
+                {
+                    if (failure == null)
+                        failure = e;
+                }
+            if (failure != null)
+                throw failure;
+        }
+        println(String.format("Pipeline: %d events, first output after %.1f ms; busy splitting %.3f s, parsing %.3f s, "
+                        + "computing %.3f s, writing %.3f s.", events, firstOutputNanos / 1e6, busy[0].get() / 1e9,
+                busy[1].get() / 1e9, busy[2].get() / 1e9, busy[3].get() / 1e9));
+        return store;
+    }
+
+    /**
+     * Split the file into batches of raw events, its reading running ahead on a thread of its own.
+     */
+    private Void split(BlockingQueue<Batch> free, BlockingQueue<Batch> split) throws IOException
+    {
+        InputStream raw = LheStream.input(lheFilePath);
+        // a compressed file is already inflated ahead.
+        if (!LheStream.isCompressed(lheFilePath))
+            raw = new PrefetchInputStream(raw, LheStream.BUFFER_SIZE, PREFETCH_BLOCKS);
+        try (LheStream in = new LheStream(raw))
+        {
+            Batch[] current = {take(free)};
+            long[] seq = {0};
+            long[] t = {System.nanoTime()};
+            in.read((buf, from, to) -> {
+                Batch b = current[0];
+                b.add(buf, from, to);
+                if (b.count < batchEvents)
+                    return;
+                b.seq = seq[0]++;
+                busy[0].addAndGet(System.nanoTime() - t[0]);
+                put(split, b);
+                current[0] = take(free);
+                t[0] = System.nanoTime();
+            });
+            busy[0].addAndGet(System.nanoTime() - t[0]);
+            if (current[0].count != 0)
+            {
+                current[0].seq = seq[0];
+                put(split, current[0]);
+            }
+            else
+                put(free, current[0]);
+            header = in.header();
+            bytesRead = in.bytesRead();
+        }
+        for (int i=0; i<parseThreads; i++)
+            put(split, END);
+        return null;
+    }
+
+    /**
+     * Parse batches until the end, the last thread to finish passing the end on.
+     */
+    private Void parse(BlockingQueue<Batch> split, BlockingQueue<Batch> parsed, AtomicInteger parsing)
+            throws IOException
+    {
+        while (true)
+        {
+            Batch b = take(split);
+            if (b == END)
+                break;
+            long t = System.nanoTime();
+            b.parse();
+            busy[1].addAndGet(System.nanoTime() - t);
+            put(parsed, b);
+        }
+        if (parsing.decrementAndGet() == 0)
+            for (int i=0; i<computeThreads; i++)
+                put(parsed, END);
+        return null;
+    }
+
+    /**
+     * Compute the observables of batches until the end, the last thread to finish passing the end on.
+     */
+    private Void compute(BlockingQueue<Batch> parsed, BlockingQueue<Batch> computed, AtomicInteger computing)
+            throws IOException
+    {
+        Accumulator partial = accumulator == null ? null : accumulator.partial();
+        while (true)
+        {
+            Batch b = take(parsed);
+            if (b == END)
+                break;
+            long t = System.nanoTime();
+            EventStore store = b.parser.getStore();
+            int n = store.size();
+            if (b.values.length != observables.size())
+                b.values = new double[observables.size()][];
+            for (int k=0; k<observables.size(); k++)
+            {
+                if (b.values[k] == null || b.values[k].length < n)
+                    b.values[k] = new double[Math.max(n, batchEvents)];
+                Observable o = observables.get(k);
+                double[] v = b.values[k];
+                for (int i=0; i<n; i++)
+                    v[i] = o.value(store, i);
+            }
+            if (partial != null)
+                for (int i=0; i<n; i++)
+                    partial.fill(store, i, store.weight(i));
+            busy[2].addAndGet(System.nanoTime() - t);
+            put(computed, b);
+        }
+        if (partial != null)
+            synchronized (accumulator)
+            {
+                accumulator.merge(partial);
+            }
+        if (computing.decrementAndGet() == 0)
+            put(computed, END);
+        return null;
+    }
+
+    /**
+     * Hand the batches to the outputs in the order of the file and return them to the pool.
+     */
+    private Void write(BlockingQueue<Batch> computed, BlockingQueue<Batch> free, List<Sink> outs, EventStore store,
+                       long start) throws IOException
+    {
+        // batches parsed out of order wait for those before them.
+        Map<Long, Batch> pending = new HashMap<>();
+        long next = 0;
+        while (true)
+        {
+            Batch b = take(computed);
+            if (b == END)
+                break;
+            pending.put(b.seq, b);
+            while ((b = pending.remove(next)) != null)
+            {
+                long t = System.nanoTime();
+                EventStore events = b.parser.getStore();
+                for (Sink out: outs)
+                    out.write(events, b.values);
+                if (store != null)
+                    store.append(events);
+                if (firstOutputNanos < 0)
+                    firstOutputNanos = System.nanoTime() - start;
+                this.events += b.count;
+                rejected += b.rejected;
+                unmatched += b.unmatched;
+                busy[3].addAndGet(System.nanoTime() - t);
+                b.reset();
+                put(free, b);
+                next++;
+            }
+        }
+        if (!pending.isEmpty())
+            throw new RuntimeException("Batches lost in the pipeline!");
+        return null;
+    }
+
+    private static Batch take(BlockingQueue<Batch> queue) throws InterruptedIOException
+    {
+        try
+        {
+            return queue.take();
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Pipeline stopped!");
+        }
+    }
+
+    private static void put(BlockingQueue<Batch> queue, Batch b) throws InterruptedIOException
+    {
+        try
+        {
+            queue.put(b);
+        }
+        catch (InterruptedException e)
+        {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Pipeline stopped!");
+        }
+    }
+
+    /**
+     * @return The text preceding the first event of the file, once run.
+     */
+    public String header()
+    {
+        return header;
+    }
+
+    /**
+     * @return Number of bytes read from the file, once decompressed.
+     */
+    public long bytesRead()
+    {
+        return bytesRead;
+    }
+
+    /**
+     * @return Number of events read.
+     */
+    public long events()
+    {
+        return events;
+    }
+
+    public long rejected()
+    {
+        return rejected;
+    }
+
+    public long unmatched()
+    {
+        return unmatched;
+    }
+
+    /**
+     * @return Time in nanoseconds from the start of the run until the first batch was handed to the outputs, or -1 if
+     * none was.
+     */
+    public long firstOutputNanos()
+    {
+        return firstOutputNanos;
+    }
+
+    /**
+     * @return Time in nanoseconds spent writing the outputs.
+     */
+    public long writeNanos()
+    {
+        return busy[3].get();
+    }
+
+    /**
+     * Events of the file, first raw as split from it and then parsed in place, reused from one run of a stage to the
+     * next.
+     */
+    private static final class Batch
+    {
+        final EventParser parser;
+
+        long seq;
+
+        byte[] bytes;
+
+        ByteBuffer view;
+
+        int length;
+
+        /**
+         * End of every event in the bytes.
+         */
+        int[] ends;
+
+        int count;
+
+        long rejected, unmatched;
+
+        double[][] values = new double[0][];
+
+        /**
+         * End of the stream.
+         */
+        Batch()
+        {
+            parser = null;
+        }
+
+        Batch(EventParser parser)
+        {
+            this.parser = parser;
+            bytes = new byte[1 << 16];
+            view = ByteBuffer.wrap(bytes);
+            ends = new int[BATCH_EVENTS];
+        }
+
+        void add(ByteBuffer buf, int from, int to)
+        {
+            int n = to - from;
+            if (length + n > bytes.length)
+            {
+                bytes = Arrays.copyOf(bytes, Math.max(bytes.length * 2, length + n));
+                view = ByteBuffer.wrap(bytes);
+            }
+            buf.get(from, bytes, length, n);
+            length += n;
+            if (count == ends.length)
+                ends = Arrays.copyOf(ends, ends.length * 2);
+            ends[count++] = length;
+        }
+
+        void parse() throws IOException
+        {
+            long r = parser.rejected(), u = parser.unmatched();
+            for (int i=0; i<count; i++)
+                parser.event(view, i == 0 ? 0 : ends[i-1], ends[i]);
+            rejected = parser.rejected() - r;
+            unmatched = parser.unmatched() - u;
+        }
+
+        void reset()
+        {
+            parser.getStore().clear();
+            length = 0;
+            count = 0;
+        }
+    }
+
+    /**
+     * Momenta of the events into sim_momenta_*.csv, one file per particle.
+     */
+    private static final class MomentaSink implements Sink
+    {
+        private final CsvWriter[] outs;
+
+        MomentaSink(String path, int multiplicity) throws IOException
+        {
+            outs = new CsvWriter[multiplicity];
+            try
+            {
+                for (int i=0; i<multiplicity; i++)
+                    outs[i] = new CsvWriter(new File(String.format("%ssim_momenta_%d.csv", path, i+1)),
+                            CsvExport.MOMENTA_HEADER);
+            }
+            catch (IOException e)
+            {
+                close();
+                throw e;
+            }
+        }
+
+        @Override
+        public void write(EventStore events, double[][] values) throws IOException
+        {
+            for (int e=0; e<events.size(); e++)
+                for (int i=0; i<outs.length; i++)
+                {
+                    outs[i].add(events.e(e, i)).add(events.px(e, i)).add(events.py(e, i)).add(events.pz(e, i));
+                    outs[i].endRow();
+                }
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            for (CsvWriter out: outs)
+                if (out != null)
+                    out.close();
+        }
+    }
+
+    /**
+     * Observables of the events into a single .csv file, one column per observable.
+     */
+    private static final class ObservablesSink implements Sink
+    {
+        private final CsvWriter out;
+
+        ObservablesSink(String file, List<String> names) throws IOException
+        {
+            out = new CsvWriter(new File(file), String.join(", ", names));
+        }
+
+        @Override
+        public void write(EventStore events, double[][] values) throws IOException
+        {
+            for (int e=0; e<events.size(); e++)
+            {
+                for (double[] v: values)
+                    out.add(v[e]);
+                out.endRow();
+            }
+        }
+
+        @Override
+        public void close() throws IOException
+        {
+            out.close();
+        }
+    }
+}
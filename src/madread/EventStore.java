@@ -0,0 +1,610 @@
+package madread;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.DoubleBuffer;
+import java.nio.IntBuffer;
+import java.util.Arrays;
+
+/**
+ * Columnar store of the particles of parsed events, each quantity being held in a primitive column instead of as text.
+ * The particles of an event occupy consecutive rows, particle <code>p</code> of event <code>e</code> being at row
+ * <code>offset(e) + p</code>, so that events may vary in length. The columns are heap buffers by default, or direct
+ * buffers outside of the heap for very large runs. The header line of each event, <code>NUP IDPRUP XWGTUP SCALUP
+ * AQEDUP AQCDUP</code>, is held in columns indexed by event, and the multi-weights of the events one after another in
+ * a single column, like the particles.
+ */
+public class EventStore
+{
+    /**
+     * Number of particles per event, or 0 if events vary in length.
+     */
+    public final int multiplicity;
+
+    private final boolean direct;
+
+    /**
+     * Number of complete events.
+     */
+    private int events;
+
+    /**
+     * Number of particles written, including those of an incomplete event.
+     */
+    private int rows;
+
+    private int capacity;
+
+    /**
+     * First row of each event, followed by the number of rows of the complete events.
+     */
+    private int[] offsets;
+
+    private DoubleBuffer e, px, py, pz, m, lifetime, spin;
+
+    private IntBuffer pdg, status, mother1, mother2, color1, color2;
+
+    /**
+     * Header line of each event, with room for the event being filled.
+     */
+    private int[] nup, idprup;
+
+    private double[] xwgtup, scalup, aqedup, aqcdup;
+
+    /**
+     * Multi-weights of all events, including those of an incomplete event.
+     */
+    private double[] weights = new double[0];
+
+    private int weightRows;
+
+    /**
+     * First multi-weight of each event, followed by the number of multi-weights of the complete events.
+     */
+    private int[] weightOffsets;
+
+    /**
+     * @param multiplicity Number of particles per event, or 0 if events vary in length.
+     * @param capacity Number of events for which room is initially made; grown as needed.
+     * @param direct Whether the columns are allocated outside of the heap.
+     */
+    public EventStore(int multiplicity, int capacity, boolean direct)
+    {
+        this.multiplicity = multiplicity;
+        this.direct = direct;
+        this.capacity = Math.max(1, capacity) * Math.max(1, multiplicity);
+        offsets = new int[Math.max(1, capacity) + 1];
+        weightOffsets = new int[offsets.length];
+        nup = new int[offsets.length];
+        idprup = new int[offsets.length];
+        xwgtup = new double[offsets.length];
+        scalup = new double[offsets.length];
+        aqedup = new double[offsets.length];
+        aqcdup = new double[offsets.length];
+        e = doubles(this.capacity);
+        px = doubles(this.capacity);
+        py = doubles(this.capacity);
+        pz = doubles(this.capacity);
+        m = doubles(this.capacity);
+        lifetime = doubles(this.capacity);
+        spin = doubles(this.capacity);
+        pdg = ints(this.capacity);
+        status = ints(this.capacity);
+        mother1 = ints(this.capacity);
+        mother2 = ints(this.capacity);
+        color1 = ints(this.capacity);
+        color2 = ints(this.capacity);
+    }
+
+    public EventStore(int multiplicity)
+    {
+        this(multiplicity, 1024, false);
+    }
+
+    /**
+     * Set the header of the event being filled to the header line last scanned.
+     */
+    public void header(LineScanner line)
+    {
+        nup[events] = line.nup();
+        idprup[events] = line.idprup();
+        xwgtup[events] = line.weight();
+        scalup[events] = line.scale();
+        aqedup[events] = line.aqed();
+        aqcdup[events] = line.aqcd();
+    }
+
+    /**
+     * Append a multi-weight to the event being filled.
+     */
+    public void addWeight(double w)
+    {
+        if (weightRows == weights.length)
+            weights = Arrays.copyOf(weights, Math.max(16, weights.length * 2));
+        weights[weightRows++] = w;
+    }
+
+    /**
+     * Append the particle of the line last scanned to the event being filled.
+     */
+    public void add(LineScanner line)
+    {
+        if (rows == capacity)
+            grow();
+        put(rows++, line);
+    }
+
+    /**
+     * Append the given number of particles to the event being filled, to be set in any order by <code>set</code>.
+     */
+    public void reserve(int n)
+    {
+        while (rows + n > capacity)
+            grow();
+        rows += n;
+    }
+
+    /**
+     * Set a particle of the event being filled to that of the line last scanned.
+     * @param particle Position of the particle in the event, counted from 0, among the rows appended.
+     */
+    public void set(int particle, LineScanner line)
+    {
+        put(offsets[events] + particle, line);
+    }
+
+    private void put(int r, LineScanner line)
+    {
+        e.put(r, line.e());
+        px.put(r, line.px());
+        py.put(r, line.py());
+        pz.put(r, line.pz());
+        m.put(r, line.m());
+        lifetime.put(r, line.lifetime());
+        spin.put(r, line.spin());
+        pdg.put(r, line.pdg());
+        status.put(r, line.status());
+        mother1.put(r, line.mother1());
+        mother2.put(r, line.mother2());
+        color1.put(r, line.color1());
+        color2.put(r, line.color2());
+    }
+
+    /**
+     * Complete the event being filled.
+     */
+    public void endEvent()
+    {
+        int n = rows - offsets[events];
+        if (multiplicity != 0 && n != multiplicity)
+            throw new RuntimeException("Event " + events + " has " + n + " particles instead of " + multiplicity + "!");
+        if (events + 2 > offsets.length)
+            growEvents(offsets.length * 2);
+        offsets[++events] = rows;
+        weightOffsets[events] = weightRows;
+    }
+
+    /**
+     * Discard everything appended since the last complete event.
+     */
+    public void discardEvent()
+    {
+        rows = offsets[events];
+        weightRows = weightOffsets[events];
+    }
+
+    /**
+     * Discard all events, keeping the columns allocated for reuse.
+     */
+    public void clear()
+    {
+        // columns mapped from a file are read-only.
+        if (e.isReadOnly())
+            grow();
+        rows = 0;
+        weightRows = 0;
+        events = 0;
+    }
+
+    /**
+     * Append all the events of another store, e.g. one filled from a later part of the same file.
+     */
+    public void append(EventStore other)
+    {
+        if (other.multiplicity != multiplicity)
+            throw new RuntimeException("Cannot append events of multiplicity " + other.multiplicity + " to "
+                    + multiplicity + "!");
+        discardEvent();
+        int n = other.offsets[other.events];
+        if (n != 0)
+            appendColumns(other, n);
+        if (events + other.events + 1 > offsets.length)
+            growEvents(Math.max(offsets.length * 2, events + other.events + 1));
+        for (int i = 1; i <= other.events; i++)
+            offsets[events + i] = rows + other.offsets[i];
+        System.arraycopy(other.nup, 0, nup, events, other.events);
+        System.arraycopy(other.idprup, 0, idprup, events, other.events);
+        System.arraycopy(other.xwgtup, 0, xwgtup, events, other.events);
+        System.arraycopy(other.scalup, 0, scalup, events, other.events);
+        System.arraycopy(other.aqedup, 0, aqedup, events, other.events);
+        System.arraycopy(other.aqcdup, 0, aqcdup, events, other.events);
+        int w = other.weightOffsets[other.events];
+        if (weightRows + w > weights.length)
+            weights = Arrays.copyOf(weights, Math.max(weights.length * 2, weightRows + w));
+        System.arraycopy(other.weights, 0, weights, weightRows, w);
+        for (int i = 1; i <= other.events; i++)
+            weightOffsets[events + i] = weightRows + other.weightOffsets[i];
+        rows += n;
+        weightRows += w;
+        events += other.events;
+    }
+
+    /**
+     * Copy the first rows of the particle columns of another store after those of this one, first copying columns
+     * mapped from a file to the heap.
+     */
+    private void appendColumns(EventStore other, int n)
+    {
+        // columns mapped from a file are read-only.
+        if (e.isReadOnly())
+            grow();
+        while (capacity < rows + n)
+            grow();
+        copy(other.e, e, n);
+        copy(other.px, px, n);
+        copy(other.py, py, n);
+        copy(other.pz, pz, n);
+        copy(other.m, m, n);
+        copy(other.lifetime, lifetime, n);
+        copy(other.spin, spin, n);
+        copy(other.pdg, pdg, n);
+        copy(other.status, status, n);
+        copy(other.mother1, mother1, n);
+        copy(other.mother2, mother2, n);
+        copy(other.color1, color1, n);
+        copy(other.color2, color2, n);
+    }
+
+    /**
+     * @return Number of complete events.
+     */
+    public int size()
+    {
+        return events;
+    }
+
+    /**
+     * @return Number of particles of the given event.
+     */
+    public int particles(int event)
+    {
+        return offsets[event + 1] - offsets[event];
+    }
+
+    /**
+     * @return First row of the given event, or the number of rows of the complete events if the index is the size.
+     */
+    public int offset(int event)
+    {
+        return offsets[event];
+    }
+
+    /**
+     * @return Number of particles listed in the event, NUP, including those not selected.
+     */
+    public int nup(int event)
+    {
+        return nup[event];
+    }
+
+    /**
+     * @return Identifier of the process of the event, IDPRUP.
+     */
+    public int idprup(int event)
+    {
+        return idprup[event];
+    }
+
+    /**
+     * @return Weight of the event, XWGTUP.
+     */
+    public double weight(int event)
+    {
+        return xwgtup[event];
+    }
+
+    /**
+     * @return Scale of the event in GeV, SCALUP.
+     */
+    public double scale(int event)
+    {
+        return scalup[event];
+    }
+
+    /**
+     * @return QED coupling of the event, AQEDUP.
+     */
+    public double aqed(int event)
+    {
+        return aqedup[event];
+    }
+
+    /**
+     * @return QCD coupling of the event, AQCDUP.
+     */
+    public double aqcd(int event)
+    {
+        return aqcdup[event];
+    }
+
+    /**
+     * @return Number of multi-weights of the event.
+     */
+    public int weights(int event)
+    {
+        return weightOffsets[event + 1] - weightOffsets[event];
+    }
+
+    /**
+     * @return A multi-weight of the event, in the order of the <code>&lt;rwgt&gt;</code> or <code>&lt;weights&gt;
+     * </code> block, counted from 0.
+     */
+    public double weight(int event, int i)
+    {
+        return weights[weightOffsets[event] + i];
+    }
+
+    public double e(int event, int particle)
+    {
+        return e.get(offsets[event] + particle);
+    }
+
+    public double px(int event, int particle)
+    {
+        return px.get(offsets[event] + particle);
+    }
+
+    public double py(int event, int particle)
+    {
+        return py.get(offsets[event] + particle);
+    }
+
+    public double pz(int event, int particle)
+    {
+        return pz.get(offsets[event] + particle);
+    }
+
+    public double mass(int event, int particle)
+    {
+        return m.get(offsets[event] + particle);
+    }
+
+    /**
+     * @return Proper lifetime of the particle, VTIMUP.
+     */
+    public double lifetime(int event, int particle)
+    {
+        return lifetime.get(offsets[event] + particle);
+    }
+
+    public double helicity(int event, int particle)
+    {
+        return spin.get(offsets[event] + particle);
+    }
+
+    public int pdg(int event, int particle)
+    {
+        return pdg.get(offsets[event] + particle);
+    }
+
+    public int status(int event, int particle)
+    {
+        return status.get(offsets[event] + particle);
+    }
+
+    public int mother1(int event, int particle)
+    {
+        return mother1.get(offsets[event] + particle);
+    }
+
+    public int mother2(int event, int particle)
+    {
+        return mother2.get(offsets[event] + particle);
+    }
+
+    public int color1(int event, int particle)
+    {
+        return color1.get(offsets[event] + particle);
+    }
+
+    public int color2(int event, int particle)
+    {
+        return color2.get(offsets[event] + particle);
+    }
+
+    /**
+     * @return Number of bytes held by the columns.
+     */
+    public long bytes()
+    {
+        return (long) capacity * (7 * Double.BYTES + 6 * Integer.BYTES)
+                + (long) offsets.length * (4 * Double.BYTES + 4 * Integer.BYTES) + (long) weights.length * Double.BYTES;
+    }
+
+    /**
+     * @return Number of bytes of the columns of as many events of as many particles each, without multi-weights.
+     */
+    static long estimate(long events, int multiplicity)
+    {
+        return events * multiplicity * (7 * Double.BYTES + 6 * Integer.BYTES)
+                + events * (4 * Double.BYTES + 4 * Integer.BYTES);
+    }
+
+    /**
+     * Write the complete events into the uncompressed columnar files <code>&lt;prefix&gt;particles.col</code>, a row
+     * per particle, <code>&lt;prefix&gt;events.col</code>, a row per event and a last one past them, and
+     * <code>&lt;prefix&gt;weights.col</code>, a row per multi-weight, to be mapped back by <code>load</code>.
+     * @param codes PDG codes of the selected particles, as many as the multiplicity.
+     */
+    void save(String prefix, int[] codes) throws IOException
+    {
+        try (ColumnarWriter out = new ColumnarWriter(prefix + "particles.col", codes, offsets[events], false))
+        {
+            out.addDoubles("E", e::get);
+            out.addDoubles("px", px::get);
+            out.addDoubles("py", py::get);
+            out.addDoubles("pz", pz::get);
+            out.addDoubles("m", m::get);
+            out.addDoubles("lifetime", lifetime::get);
+            out.addDoubles("spin", spin::get);
+            out.addInts("pdg", pdg::get);
+            out.addInts("status", status::get);
+            out.addInts("mother1", mother1::get);
+            out.addInts("mother2", mother2::get);
+            out.addInts("color1", color1::get);
+            out.addInts("color2", color2::get);
+        }
+        try (ColumnarWriter out = new ColumnarWriter(prefix + "events.col", codes, events + 1, false))
+        {
+            out.addInts("offset", r -> offsets[r]);
+            out.addInts("weightOffset", r -> weightOffsets[r]);
+            out.addInts("NUP", r -> nup[r]);
+            out.addInts("IDPRUP", r -> idprup[r]);
+            out.addDoubles("XWGTUP", r -> xwgtup[r]);
+            out.addDoubles("SCALUP", r -> scalup[r]);
+            out.addDoubles("AQEDUP", r -> aqedup[r]);
+            out.addDoubles("AQCDUP", r -> aqcdup[r]);
+        }
+        try (ColumnarWriter out = new ColumnarWriter(prefix + "weights.col", codes, weightOffsets[events], false))
+        {
+            out.addDoubles("w", r -> weights[r]);
+        }
+    }
+
+    /**
+     * Read back the events written by <code>save</code>. The particle columns are views of the mapped files, copied
+     * to the heap only if events are added; the columns indexed by event are read into the heap.
+     */
+    static EventStore load(String prefix) throws IOException
+    {
+        try (ColumnarReader particles = new ColumnarReader(prefix + "particles.col");
+             ColumnarReader header = new ColumnarReader(prefix + "events.col");
+             ColumnarReader multi = new ColumnarReader(prefix + "weights.col"))
+        {
+            EventStore store = new EventStore(particles.multiplicity(), 1, false);
+            int events = Math.toIntExact(header.rows() - 1);
+            if (events == 0)
+                return store;
+            store.offsets = toArray(header.ints("offset"));
+            store.weightOffsets = toArray(header.ints("weightOffset"));
+            store.nup = toArray(header.ints("NUP"));
+            store.idprup = toArray(header.ints("IDPRUP"));
+            store.xwgtup = toArray(header.doubles("XWGTUP"));
+            store.scalup = toArray(header.doubles("SCALUP"));
+            store.aqedup = toArray(header.doubles("AQEDUP"));
+            store.aqcdup = toArray(header.doubles("AQCDUP"));
+            store.weights = toArray(multi.doubles("w"));
+            store.e = particles.doubles("E");
+            store.px = particles.doubles("px");
+            store.py = particles.doubles("py");
+            store.pz = particles.doubles("pz");
+            store.m = particles.doubles("m");
+            store.lifetime = particles.doubles("lifetime");
+            store.spin = particles.doubles("spin");
+            store.pdg = particles.ints("pdg");
+            store.status = particles.ints("status");
+            store.mother1 = particles.ints("mother1");
+            store.mother2 = particles.ints("mother2");
+            store.color1 = particles.ints("color1");
+            store.color2 = particles.ints("color2");
+            store.events = events;
+            store.rows = store.offsets[events];
+            // the mapped columns are full, so that adding a particle first copies them.
+            store.capacity = store.rows;
+            store.weightRows = store.weightOffsets[events];
+            return store;
+        }
+    }
+
+    private static int[] toArray(IntBuffer b)
+    {
+        int[] a = new int[b.limit()];
+        b.get(0, a);
+        return a;
+    }
+
+    private static double[] toArray(DoubleBuffer b)
+    {
+        double[] a = new double[b.limit()];
+        b.get(0, a);
+        return a;
+    }
+
+    private void growEvents(int n)
+    {
+        offsets = Arrays.copyOf(offsets, n);
+        weightOffsets = Arrays.copyOf(weightOffsets, n);
+        nup = Arrays.copyOf(nup, n);
+        idprup = Arrays.copyOf(idprup, n);
+        xwgtup = Arrays.copyOf(xwgtup, n);
+        scalup = Arrays.copyOf(scalup, n);
+        aqedup = Arrays.copyOf(aqedup, n);
+        aqcdup = Arrays.copyOf(aqcdup, n);
+    }
+
+    private void grow()
+    {
+        int cap = Math.max(capacity * 2, 16);
+        e = grow(e, cap);
+        px = grow(px, cap);
+        py = grow(py, cap);
+        pz = grow(pz, cap);
+        m = grow(m, cap);
+        lifetime = grow(lifetime, cap);
+        spin = grow(spin, cap);
+        pdg = grow(pdg, cap);
+        status = grow(status, cap);
+        mother1 = grow(mother1, cap);
+        mother2 = grow(mother2, cap);
+        color1 = grow(color1, cap);
+        color2 = grow(color2, cap);
+        capacity = cap;
+    }
+
+    private DoubleBuffer doubles(int n)
+    {
+        return direct ? ByteBuffer.allocateDirect(n * Double.BYTES).order(ByteOrder.nativeOrder()).asDoubleBuffer()
+                : DoubleBuffer.allocate(n);
+    }
+
+    private IntBuffer ints(int n)
+    {
+        return direct ? ByteBuffer.allocateDirect(n * Integer.BYTES).order(ByteOrder.nativeOrder()).asIntBuffer()
+                : IntBuffer.allocate(n);
+    }
+
+    private DoubleBuffer grow(DoubleBuffer col, int n)
+    {
+        DoubleBuffer b = doubles(n);
+        b.put(col.duplicate().position(0).limit(rows));
+        return b.clear();
+    }
+
+    private IntBuffer grow(IntBuffer col, int n)
+    {
+        IntBuffer b = ints(n);
+        b.put(col.duplicate().position(0).limit(rows));
+        return b.clear();
+    }
+
+    private void copy(DoubleBuffer from, DoubleBuffer to, int n)
+    {
+        to.duplicate().position(rows).put(from.duplicate().position(0).limit(n));
+    }
+
+    private void copy(IntBuffer from, IntBuffer to, int n)
+    {
+        to.duplicate().position(rows).put(from.duplicate().position(0).limit(n));
+    }
+}
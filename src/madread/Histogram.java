@@ -0,0 +1,237 @@
+package madread;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Arrays;
+
+/**
+ * One-dimensional histogram of weighted values with fixed or logarithmic bins, along with the running moments, minimum
+ * and maximum of all values filled, including those outside of the bins. Histograms of the same binning filled
+ * separately, e.g. on different threads, may be merged.
+ */
+public class Histogram
+{
+    public final String name;
+
+    public final int bins;
+
+    public final double min, max;
+
+    /**
+     * Whether the bins are of equal width in the logarithm of the value.
+     */
+    public final boolean log;
+
+    /**
+     * Bins per unit of the value, or of its logarithm.
+     */
+    private final double scale;
+
+    /**
+     * Sums of weights and of squared weights per bin, underflow first and overflow last.
+     */
+    private final double[] sumW, sumW2;
+
+    private long entries;
+
+    private double weight, mean, m2;
+
+    private double lowest = Double.POSITIVE_INFINITY, highest = Double.NEGATIVE_INFINITY;
+
+    private Histogram(String name, int bins, double min, double max, boolean log)
+    {
+        if (bins < 1 || !(min < max) || log && min <= 0)
+            throw new RuntimeException("Invalid binning of histogram " + name + "!");
+        this.name = name;
+        this.bins = bins;
+        this.min = min;
+        this.max = max;
+        this.log = log;
+        scale = bins / (log ? Math.log(max / min) : max - min);
+        sumW = new double[bins + 2];
+        sumW2 = new double[bins + 2];
+    }
+
+    /**
+     * @return Histogram of bins of equal width between the given bounds.
+     */
+    public static Histogram linear(String name, int bins, double min, double max)
+    {
+        return new Histogram(name, bins, min, max, false);
+    }
+
+    /**
+     * @return Histogram of bins of equal width in the logarithm of the value between the given positive bounds.
+     */
+    public static Histogram log(String name, int bins, double min, double max)
+    {
+        return new Histogram(name, bins, min, max, true);
+    }
+
+    /**
+     * @return Empty histogram of the same name and binning.
+     */
+    public Histogram copy()
+    {
+        return new Histogram(name, bins, min, max, log);
+    }
+
+    public void fill(double x)
+    {
+        fill(x, 1);
+    }
+
+    /**
+     * Fill a value of the given weight; NaN is ignored.
+     */
+    public void fill(double x, double w)
+    {
+        if (x != x)
+            return;
+        int b = bin(x);
+        sumW[b] += w;
+        sumW2[b] += w * w;
+        entries++;
+        // weighted update of the mean and of the sum of squared deviations.
+        weight += w;
+        if (weight != 0)
+        {
+            double d = x - mean;
+            mean += d * w / weight;
+            m2 += w * d * (x - mean);
+        }
+        if (x < lowest)
+            lowest = x;
+        if (x > highest)
+            highest = x;
+    }
+
+    /**
+     * @return Index of the bin of a value, 0 for underflow and <code>bins + 1</code> for overflow.
+     */
+    private int bin(double x)
+    {
+        if (x < min)
+            return 0;
+        if (x >= max)
+            return bins + 1;
+        int b = (int) ((log ? Math.log(x / min) : x - min) * scale);
+        // rounding at the upper edge.
+        return Math.min(b, bins - 1) + 1;
+    }
+
+    /**
+     * Add the fills of another histogram of the same binning.
+     */
+    public void merge(Histogram other)
+    {
+        if (other.bins != bins || other.min != min || other.max != max || other.log != log)
+            throw new RuntimeException("Cannot merge histograms of different binning into " + name + "!");
+        for (int b=0; b<sumW.length; b++)
+        {
+            sumW[b] += other.sumW[b];
+            sumW2[b] += other.sumW2[b];
+        }
+        double w = weight + other.weight;
+        if (w != 0)
+        {
+            double d = other.mean - mean;
+            m2 += other.m2 + d * d * weight * other.weight / w;
+            mean += d * other.weight / w;
+        }
+        weight = w;
+        entries += other.entries;
+        lowest = Math.min(lowest, other.lowest);
+        highest = Math.max(highest, other.highest);
+    }
+
+    /**
+     * @return Lower edge of a bin, counted from 0.
+     */
+    public double edge(int bin)
+    {
+        if (bin == bins)
+            return max;
+        return log ? min * Math.exp(bin / scale) : min + bin / scale;
+    }
+
+    /**
+     * @return Sum of the weights in a bin, counted from 0, or -1 for underflow and <code>bins</code> for overflow.
+     */
+    public double content(int bin)
+    {
+        return sumW[bin + 1];
+    }
+
+    /**
+     * @return Statistical uncertainty of the content of a bin, the root of the sum of squared weights.
+     */
+    public double error(int bin)
+    {
+        return Math.sqrt(sumW2[bin + 1]);
+    }
+
+    /**
+     * @return Number of values filled.
+     */
+    public long entries()
+    {
+        return entries;
+    }
+
+    /**
+     * @return Sum of the weights filled.
+     */
+    public double sumOfWeights()
+    {
+        return weight;
+    }
+
+    public double mean()
+    {
+        return entries == 0 ? Double.NaN : mean;
+    }
+
+    /**
+     * @return Weighted variance of the values, normalised by the sum of weights.
+     */
+    public double variance()
+    {
+        return weight == 0 ? Double.NaN : Math.max(m2, 0) / weight;
+    }
+
+    public double min()
+    {
+        return entries == 0 ? Double.NaN : lowest;
+    }
+
+    public double max()
+    {
+        return entries == 0 ? Double.NaN : highest;
+    }
+
+    /**
+     * Write the bins into <code>name</code>.csv at the given directory, one row of the edges, content and uncertainty
+     * per bin, underflow and overflow being the first and last rows with infinite outer edges.
+     */
+    public void write(String dir) throws IOException
+    {
+        try (CsvWriter out = new CsvWriter(new File(dir + name + ".csv"), "low, high, content, error", 1 << 16))
+        {
+            for (int b=-1; b<=bins; b++)
+            {
+                out.add(b < 0 ? Double.NEGATIVE_INFINITY : edge(b))
+                        .add(b < bins ? edge(b + 1) : Double.POSITIVE_INFINITY);
+                out.add(content(b)).add(error(b));
+                out.endRow();
+            }
+        }
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%s: %d entries, mean %g, variance %g, min %g, max %g, bins %s", name, entries, mean(),
+                variance(), min(), max(), Arrays.toString(Arrays.copyOfRange(sumW, 1, bins + 1)));
+    }
+}
@@ -0,0 +1,220 @@
+package madread;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * The <code>&lt;init&gt;</code> block of a .lhe file, i.e.
+ * <pre>IDBMUP1 IDBMUP2 EBMUP1 EBMUP2 PDFGUP1 PDFGUP2 PDFSUP1 PDFSUP2 IDWTUP NPRUP</pre>
+ * followed by a line <code>XSECUP XERRUP XMAXUP LPRUP</code> per process, together with the identifiers of the
+ * multi-weights declared in the <code>&lt;initrwgt&gt;</code> block of the header, in the order they are given in each
+ * event. The block is parsed once from the text preceding the first event.
+ */
+public class InitBlock
+{
+    private static final Pattern INIT = Pattern.compile("<init(?:\\s[^>]*)?>(.*?)</init>", Pattern.DOTALL);
+
+    private static final Pattern WEIGHT_ID = Pattern.compile("<weight\\s[^>]*?id\\s*=\\s*['\"]([^'\"]*)['\"]");
+
+    private final int[] beamId = new int[2];
+
+    private final double[] beamEnergy = new double[2];
+
+    private final int[] pdfGroup = new int[2];
+
+    private final int[] pdfSet = new int[2];
+
+    private final int weightingStrategy;
+
+    private final double[] crossSection;
+
+    private final double[] crossSectionError;
+
+    private final double[] maxWeight;
+
+    private final int[] processId;
+
+    private final List<String> weightIds = new ArrayList<>();
+
+    private InitBlock(String[] first, String[][] processes)
+    {
+        for (int b=0; b<2; b++)
+        {
+            beamId[b] = Integer.parseInt(first[b]);
+            beamEnergy[b] = parseDouble(first[2 + b]);
+            pdfGroup[b] = Integer.parseInt(first[4 + b]);
+            pdfSet[b] = Integer.parseInt(first[6 + b]);
+        }
+        weightingStrategy = Integer.parseInt(first[8]);
+        crossSection = new double[processes.length];
+        crossSectionError = new double[processes.length];
+        maxWeight = new double[processes.length];
+        processId = new int[processes.length];
+        for (int p=0; p<processes.length; p++)
+        {
+            crossSection[p] = parseDouble(processes[p][0]);
+            crossSectionError[p] = parseDouble(processes[p][1]);
+            maxWeight[p] = parseDouble(processes[p][2]);
+            processId[p] = Integer.parseInt(processes[p][3]);
+        }
+    }
+
+    /**
+     * Parse the init block out of the text preceding the first event.
+     * @param header Header and init block, e.g. as given by <code>LheStream.header()</code>.
+     * @return The init block, or null if there is none.
+     */
+    public static InitBlock parse(String header)
+    {
+        int[] bounds = bounds(header);
+        if (bounds == null)
+            return null;
+        // only the lines of numbers; tags such as <generator> may follow.
+        List<String[]> lines = new ArrayList<>();
+        for (String line: header.substring(bounds[0], bounds[1]).split("\n"))
+        {
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("<") || line.startsWith("#"))
+                continue;
+            lines.add(line.split("\\s+"));
+        }
+        if (lines.isEmpty() || lines.get(0).length < 10)
+            throw new RuntimeException("Invalid init block!");
+        int n = Integer.parseInt(lines.get(0)[9]);
+        if (lines.size() < n + 1)
+            throw new RuntimeException("Init block declares " + n + " processes but lists " + (lines.size() - 1) + "!");
+        String[][] processes = new String[n][];
+        for (int p=0; p<n; p++)
+        {
+            processes[p] = lines.get(p + 1);
+            if (processes[p].length < 4)
+                throw new RuntimeException("Invalid cross section of process " + (p + 1) + " in init block!");
+        }
+        InitBlock init = new InitBlock(lines.get(0), processes);
+        Matcher ids = WEIGHT_ID.matcher(header);
+        while (ids.find())
+            init.weightIds.add(ids.group(1));
+        return init;
+    }
+
+    /**
+     * Locate the init block, whose tag is told apart from that of <code>&lt;initrwgt&gt;</code>.
+     * @return Start and end of the text between the opening and closing tags, or null if there is no init block.
+     */
+    static int[] bounds(String header)
+    {
+        if (header == null)
+            return null;
+        Matcher mat = INIT.matcher(header);
+        return mat.find() ? new int[]{mat.start(1), mat.end(1)} : null;
+    }
+
+    private static double parseDouble(String s)
+    {
+        return Double.parseDouble(s.replace('d', 'e').replace('D', 'e'));
+    }
+
+    /**
+     * @param beam 0 or 1.
+     * @return PDG code of the beam.
+     */
+    public int beamId(int beam)
+    {
+        return beamId[beam];
+    }
+
+    /**
+     * @param beam 0 or 1.
+     * @return Energy of the beam in GeV.
+     */
+    public double beamEnergy(int beam)
+    {
+        return beamEnergy[beam];
+    }
+
+    /**
+     * @return Author group of the PDF of the beam.
+     */
+    public int pdfGroup(int beam)
+    {
+        return pdfGroup[beam];
+    }
+
+    /**
+     * @return PDF set of the beam.
+     */
+    public int pdfSet(int beam)
+    {
+        return pdfSet[beam];
+    }
+
+    /**
+     * @return IDWTUP, the meaning of the event weights.
+     */
+    public int weightingStrategy()
+    {
+        return weightingStrategy;
+    }
+
+    /**
+     * @return Number of processes, NPRUP.
+     */
+    public int processes()
+    {
+        return processId.length;
+    }
+
+    /**
+     * @return Cross section of a process in pb, counted from 0.
+     */
+    public double crossSection(int process)
+    {
+        return crossSection[process];
+    }
+
+    /**
+     * @return Statistical uncertainty of the cross section of a process in pb.
+     */
+    public double crossSectionError(int process)
+    {
+        return crossSectionError[process];
+    }
+
+    /**
+     * @return Maximum event weight of a process.
+     */
+    public double maxWeight(int process)
+    {
+        return maxWeight[process];
+    }
+
+    /**
+     * @return LPRUP, the identifier of a process given as IDPRUP by its events.
+     */
+    public int processId(int process)
+    {
+        return processId[process];
+    }
+
+    /**
+     * @return Total cross section of all processes in pb.
+     */
+    public double totalCrossSection()
+    {
+        double s = 0;
+        for (double c: crossSection)
+            s += c;
+        return s;
+    }
+
+    /**
+     * @return Identifiers of the multi-weights declared in the header, empty if none.
+     */
+    public List<String> weightIds()
+    {
+        return Collections.unmodifiableList(weightIds);
+    }
+}
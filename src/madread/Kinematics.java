@@ -0,0 +1,211 @@
+package madread;
+
+import madread.utils.Utils;
+
+/**
+ * Derived kinematical quantities of the selected particles over all events, each computed column by column in a
+ * single loop over primitive arrays. The four-momenta are held per particle in contiguous arrays indexed by event,
+ * so that the loops run at unit stride and are left for the compiler to vectorise, without an object per event.
+ */
+public class Kinematics
+{
+    /**
+     * Number of particles per event.
+     */
+    public final int multiplicity;
+
+    /**
+     * Number of events.
+     */
+    public final int events;
+
+    private final double[][] e, px, py, pz;
+
+    /**
+     * Gather the four-momenta of the events of a store.
+     * @param store Events of a fixed number of particles.
+     */
+    public Kinematics(EventStore store)
+    {
+        if (store.multiplicity == 0)
+            throw new RuntimeException("Events of varying length have no kinematical columns per particle!");
+        multiplicity = store.multiplicity;
+        events = store.size();
+        e = new double[multiplicity][events];
+        px = new double[multiplicity][events];
+        py = new double[multiplicity][events];
+        pz = new double[multiplicity][events];
+        for (int i=0; i<events; i++)
+            for (int p=0; p<multiplicity; p++)
+            {
+                e[p][i] = store.e(i, p);
+                px[p][i] = store.px(i, p);
+                py[p][i] = store.py(i, p);
+                pz[p][i] = store.pz(i, p);
+            }
+    }
+
+    /**
+     * @param e Energy of each particle, indexed by particle and then event; the arrays are not copied.
+     */
+    public Kinematics(double[][] e, double[][] px, double[][] py, double[][] pz)
+    {
+        multiplicity = e.length;
+        events = multiplicity == 0 ? 0 : e[0].length;
+        this.e = e;
+        this.px = px;
+        this.py = py;
+        this.pz = pz;
+    }
+
+    public double[] e(int particle)
+    {
+        return e[particle];
+    }
+
+    public double[] px(int particle)
+    {
+        return px[particle];
+    }
+
+    public double[] py(int particle)
+    {
+        return py[particle];
+    }
+
+    public double[] pz(int particle)
+    {
+        return pz[particle];
+    }
+
+    /**
+     * @return Transverse momentum of a particle in each event.
+     */
+    public double[] pt(int particle)
+    {
+        double[] x = px[particle], y = py[particle];
+        double[] out = new double[events];
+        for (int i=0; i<events; i++)
+            out[i] = Math.sqrt(x[i]*x[i] + y[i]*y[i]);
+        return out;
+    }
+
+    /**
+     * @return Pseudorapidity of a particle in each event.
+     */
+    public double[] eta(int particle)
+    {
+        double[] x = px[particle], y = py[particle], z = pz[particle];
+        double[] out = new double[events];
+        for (int i=0; i<events; i++)
+            out[i] = Utils.eta(x[i], y[i], z[i]);
+        return out;
+    }
+
+    /**
+     * @return Azimuth of a particle in each event.
+     */
+    public double[] phi(int particle)
+    {
+        double[] x = px[particle], y = py[particle];
+        double[] out = new double[events];
+        for (int i=0; i<events; i++)
+            out[i] = Math.atan2(y[i], x[i]);
+        return out;
+    }
+
+    /**
+     * @return Rapidity of a particle in each event.
+     */
+    public double[] rapidity(int particle)
+    {
+        double[] en = e[particle], z = pz[particle];
+        double[] out = new double[events];
+        for (int i=0; i<events; i++)
+            out[i] = Utils.rapidity(en[i], z[i]);
+        return out;
+    }
+
+    /**
+     * @return Invariant mass of the system of the given particles in each event, e.g. of a pair.
+     */
+    public double[] mass(int... particles)
+    {
+        double[] se = new double[events], sx = new double[events], sy = new double[events], sz = new double[events];
+        sum(particles, se, sx, sy, sz);
+        double[] out = se;
+        for (int i=0; i<events; i++)
+            out[i] = Math.sqrt(Math.max(se[i]*se[i] - sx[i]*sx[i] - sy[i]*sy[i] - sz[i]*sz[i], 0));
+        return out;
+    }
+
+    /**
+     * @return Distance in the pseudorapidity-azimuth plane between two particles in each event.
+     */
+    public double[] deltaR(int a, int b)
+    {
+        double[] etaA = eta(a), etaB = eta(b), phiA = phi(a), phiB = phi(b);
+        double[] out = etaA;
+        for (int i=0; i<events; i++)
+            out[i] = Utils.deltaR(etaA[i], phiA[i], etaB[i], phiB[i]);
+        return out;
+    }
+
+    /**
+     * Boost every particle of each event into the rest frame of the system of the given particles, e.g. of the
+     * reagents for the centre of mass frame of the collision.
+     * @return The boosted four-momenta.
+     */
+    public Kinematics boostToRest(int... system)
+    {
+        double[] bx = new double[events], by = new double[events], bz = new double[events], g = new double[events];
+        double[] se = new double[events];
+        sum(system, se, bx, by, bz);
+        // velocity and Lorentz factor of the system.
+        for (int i=0; i<events; i++)
+        {
+            bx[i] /= se[i];
+            by[i] /= se[i];
+            bz[i] /= se[i];
+            g[i] = 1 / Math.sqrt(1 - bx[i]*bx[i] - by[i]*by[i] - bz[i]*bz[i]);
+        }
+        double[][] e2 = new double[multiplicity][events], px2 = new double[multiplicity][events];
+        double[][] py2 = new double[multiplicity][events], pz2 = new double[multiplicity][events];
+        for (int p=0; p<multiplicity; p++)
+        {
+            double[] en = e[p], x = px[p], y = py[p], z = pz[p];
+            double[] en2 = e2[p], x2 = px2[p], y2 = py2[p], z2 = pz2[p];
+            for (int i=0; i<events; i++)
+            {
+                double b2 = bx[i]*bx[i] + by[i]*by[i] + bz[i]*bz[i];
+                double bp = bx[i]*x[i] + by[i]*y[i] + bz[i]*z[i];
+                // (g-1)/b2 tends to 1/2 as the system comes to rest.
+                double k = b2 > 0 ? (g[i] - 1) / b2 : 0.5;
+                double c = k * bp - g[i] * en[i];
+                en2[i] = g[i] * (en[i] - bp);
+                x2[i] = x[i] + c * bx[i];
+                y2[i] = y[i] + c * by[i];
+                z2[i] = z[i] + c * bz[i];
+            }
+        }
+        return new Kinematics(e2, px2, py2, pz2);
+    }
+
+    /**
+     * Sum the four-momenta of the given particles into the given arrays.
+     */
+    private void sum(int[] particles, double[] se, double[] sx, double[] sy, double[] sz)
+    {
+        for (int p: particles)
+        {
+            double[] en = e[p], x = px[p], y = py[p], z = pz[p];
+            for (int i=0; i<events; i++)
+            {
+                se[i] += en[i];
+                sx[i] += x[i];
+                sy[i] += y[i];
+                sz[i] += z[i];
+            }
+        }
+    }
+}
@@ -0,0 +1,407 @@
+package madread;
+
+import static madread.Print.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Merge, shuffle and split of .lhe files, the events being streamed from file to file as text, verbatim but for their
+ * weights where samples are renormalised, in memory bounded by a buffer per file. Weights follow either of the two
+ * conventions of event generators, their sum or their mean being the cross section, which is told for each file from
+ * its first event and preserved.
+ */
+public abstract class LheFiles
+{
+    /**
+     * Header, init block and size of a sample, read ahead of streaming its events.
+     */
+    private static final class Sample
+    {
+        final String path;
+
+        final String header;
+
+        final InitBlock init;
+
+        final long events;
+
+        /**
+         * Whether the weights sum, rather than average, to the cross section.
+         */
+        final boolean summed;
+
+        Sample(String path, String header, long events, double firstWeight)
+        {
+            this.path = path;
+            this.header = header;
+            this.events = events;
+            init = InitBlock.parse(header);
+            if (init == null)
+                throw new RuntimeException("No init block in " + path + "!");
+            double sigma = init.totalCrossSection();
+            summed = events > 1 && Math.abs(firstWeight - sigma / events) < Math.abs(firstWeight - sigma);
+        }
+    }
+
+    /**
+     * Read the header, number of events and first weight of every file concurrently: an uncompressed file through its
+     * index, a compressed one by a pass counting its events.
+     */
+    private static List<Sample> samples(String[] paths, int threads) throws IOException
+    {
+        ForkJoinPool pool = new ForkJoinPool(threads);
+        try
+        {
+            List<ForkJoinTask<Sample>> tasks = new ArrayList<>();
+            for (String path: paths)
+                tasks.add(pool.submit(() -> {
+                    try
+                    {
+                        return sample(path);
+                    }
+                    catch (IOException e)
+                    {
+                        throw new UncheckedIOException(e);
+                    }
+                }));
+            List<Sample> samples = new ArrayList<>();
+            for (ForkJoinTask<Sample> task: tasks)
+                samples.add(task.join());
+            return samples;
+        }
+        catch (UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    private static Sample sample(String path) throws IOException
+    {
+        LineScanner scanner = new LineScanner(false);
+        double[] first = {Double.NaN};
+        EventHandler weight = (buf, from, to) -> {
+            if (first[0] != first[0])
+            {
+                int start = LineScanner.skipSpace(buf, from, to);
+                if (scanner.scanHeader(buf, start, LineScanner.lineEnd(buf, start, to)))
+                    first[0] = scanner.weight();
+            }
+        };
+        if (LheStream.isCompressed(path))
+            try (LheStream in = LheStream.open(path))
+            {
+                long n = in.read(weight);
+                return new Sample(path, in.header(), n, first[0]);
+            }
+        try (EventIndex index = EventIndex.open(path))
+        {
+            if (index.size() != 0)
+                index.readEvent(0, weight);
+            return new Sample(path, header(path), index.size(), first[0]);
+        }
+    }
+
+    /**
+     * @return The text preceding the first event of an uncompressed file, read up to the first event only.
+     */
+    private static String header(String path) throws IOException
+    {
+        StringBuilder header = new StringBuilder();
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(LheStream.input(path),
+                StandardCharsets.UTF_8)))
+        {
+            String line;
+            while ((line = in.readLine()) != null && !line.startsWith("<event"))
+                header.append(line).append('\n');
+        }
+        return header.toString();
+    }
+
+    /**
+     * Merge samples of the same processes, e.g. runs of different seeds, into one file in order of the inputs. The
+     * cross section of each process in the init block becomes the mean of those of the inputs weighted by their
+     * numbers of events, the uncertainties being combined accordingly, and the weights of the events are rescaled to
+     * the combined cross section. The number of events and the integrated weight of the generation info, if any, are
+     * those of the merged file.
+     * @param out Path (in string) of the merged file, compressed if it ends in .gz.
+     * @param inputs Paths (in string) of the samples, compressed or not; the header of the first is kept.
+     * @return Number of events written.
+     * @throws IOException
+     */
+    public static long merge(String out, String... inputs) throws IOException
+    {
+        int threads = Math.max(1, Math.min(inputs.length, Runtime.getRuntime().availableProcessors()));
+        List<Sample> samples = samples(inputs, threads);
+        Sample head = samples.get(0);
+        int processes = head.init.processes();
+        long total = 0;
+        for (Sample s: samples)
+        {
+            if (s.init.processes() != processes)
+                throw new RuntimeException(s.path + " has " + s.init.processes() + " processes instead of "
+                        + processes + "!");
+            for (int p=0; p<processes; p++)
+                if (s.init.processId(p) != head.init.processId(p))
+                    throw new RuntimeException(s.path + " lists process " + s.init.processId(p) + " instead of "
+                            + head.init.processId(p) + "!");
+            total += s.events;
+        }
+        double[] xsec = new double[processes], xerr = new double[processes], xmax = new double[processes];
+        double[] scale = new double[samples.size()];
+        for (int i=0; i<samples.size(); i++)
+        {
+            Sample s = samples.get(i);
+            double f = (double) s.events / total;
+            // summed weights shrink with the share of the sample; averaged ones already estimate the combination.
+            scale[i] = s.summed ? f : 1;
+            for (int p=0; p<processes; p++)
+            {
+                xsec[p] += f * s.init.crossSection(p);
+                xerr[p] += f * f * s.init.crossSectionError(p) * s.init.crossSectionError(p);
+                xmax[p] = Math.max(xmax[p], scale[i] * s.init.maxWeight(p));
+            }
+        }
+        for (int p=0; p<processes; p++)
+            xerr[p] = Math.sqrt(xerr[p]);
+        println(String.format("Merging %d events of %d samples.", total, samples.size()));
+        double sigma = 0;
+        for (int p=0; p<processes; p++)
+            sigma += xsec[p];
+        String header = withGenerationInfo(withCrossSections(head.header, xsec, xerr, xmax), total, sigma);
+        try (MadWriter writer = new MadWriter(out, header))
+        {
+            for (int i=0; i<samples.size(); i++)
+            {
+                double f = scale[i];
+                try (LheStream in = LheStream.open(samples.get(i).path))
+                {
+                    in.read((buf, from, to) -> writer.event(buf, from, to, f));
+                }
+            }
+            return writer.events();
+        }
+    }
+
+    /**
+     * Rewrite the process lines of the init block of a header, <code>XSECUP XERRUP XMAXUP LPRUP</code>, with the given
+     * cross sections, everything else being kept, the beam line and the lines past the NPRUP processes included.
+     */
+    static String withCrossSections(String header, double[] xsec, double[] xerr, double[] xmax)
+    {
+        int[] bounds = InitBlock.bounds(header);
+        if (bounds == null)
+            throw new RuntimeException("No init block in header!");
+        StringBuilder init = new StringBuilder();
+        // numeric lines seen, the first being that of the beams, and the number of processes it declares.
+        int numeric = 0, processes = 0;
+        for (String line: header.substring(bounds[0], bounds[1]).split("\n", -1))
+        {
+            String t = line.trim();
+            if (t.isEmpty() || t.startsWith("<") || t.startsWith("#"))
+                init.append(line);
+            else if (numeric++ == 0)
+            {
+                String[] f = t.split("\\s+");
+                if (f.length < 10)
+                    throw new RuntimeException("Invalid init block!");
+                processes = Math.min(Integer.parseInt(f[9]), xsec.length);
+                init.append(line);
+            }
+            else if (numeric - 1 <= processes)
+            {
+                int p = numeric - 2;
+                String[] f = t.split("\\s+");
+                init.append(String.format(Locale.ROOT, " %+.10e %+.10e %+.10e %s", xsec[p], xerr[p], xmax[p], f[3]));
+            }
+            else
+                init.append(line);
+            init.append('\n');
+        }
+        // the split leaves the text before the closing tag as a last line.
+        init.setLength(init.length() - 1);
+        return header.substring(0, bounds[0]) + init + header.substring(bounds[1]);
+    }
+
+    /**
+     * Rewrite the number of events and the integrated weight of the <code>&lt;MGGenerationInfo&gt;</code> block of a
+     * header, if any, everything else being kept.
+     */
+    static String withGenerationInfo(String header, long events, double sigma)
+    {
+        StringBuilder out = new StringBuilder(header.length());
+        boolean info = false;
+        for (String line: header.split("\n", -1))
+        {
+            String t = line.trim();
+            if (t.startsWith("<MGGenerationInfo"))
+                info = true;
+            else if (t.startsWith("</MGGenerationInfo"))
+                info = false;
+            int colon = line.indexOf(':');
+            if (info && colon >= 0 && line.contains("Number of Events"))
+                line = line.substring(0, colon + 1) + "       " + events;
+            else if (info && colon >= 0 && line.contains("Integrated weight"))
+                line = line.substring(0, colon + 1) + "       " + sigma;
+            out.append(line).append('\n');
+        }
+        // the split leaves the text after the last line break as a last line.
+        out.setLength(out.length() - 1);
+        return out.toString();
+    }
+
+    /**
+     * Write the events of an uncompressed file in an order drawn from the seed, the same seed giving the same order.
+     * Events are fetched one by one through the index of the file, so memory holds the permutation only.
+     * @param lheFilePath Path (in string) to the uncompressed .lhe file.
+     * @param out Path (in string) of the shuffled file, compressed if it ends in .gz.
+     * @param seed Seed of the permutation.
+     * @return Number of events written.
+     * @throws IOException
+     */
+    public static long shuffle(String lheFilePath, String out, long seed) throws IOException
+    {
+        try (EventIndex index = EventIndex.open(lheFilePath);
+             MadWriter writer = new MadWriter(out, header(lheFilePath)))
+        {
+            if (index.size() > Integer.MAX_VALUE)
+                throw new RuntimeException("Too many events to shuffle!");
+            int n = (int) index.size();
+            int[] order = new int[n];
+            for (int i=0; i<n; i++)
+                order[i] = i;
+            // Fisher-Yates.
+            Random random = new Random(seed);
+            for (int i=n-1; i>0; i--)
+            {
+                int j = random.nextInt(i + 1);
+                int t = order[i];
+                order[i] = order[j];
+                order[j] = t;
+            }
+            for (int e: order)
+                writer.writeRaw(index.bytes(e));
+            return writer.events();
+        }
+    }
+
+    /**
+     * Split a file into shards of consecutive events of as equal sizes as possible, each with the header of the file.
+     * Shards of an uncompressed file are written concurrently, each reading its own range of the file; a compressed
+     * file is streamed once into the shards in turn. Summed weights are rescaled by the share of each shard, so that
+     * every shard still sums to the cross section, and the generation info, if any, counts the events of the shard.
+     * @param lheFilePath Path (in string) to the .lhe file, compressed or not.
+     * @param outPattern Format of the path of a shard given its number counted from 1, e.g. shards/events_%02d.lhe.gz
+     * @param shards Number of shards.
+     * @return Number of events written.
+     * @throws IOException
+     */
+    public static long split(String lheFilePath, String outPattern, int shards) throws IOException
+    {
+        if (shards < 1)
+            throw new RuntimeException("Number of shards must be positive!");
+        Sample sample = sample(lheFilePath);
+        long[] bounds = new long[shards + 1];
+        for (int k=0; k<=shards; k++)
+            bounds[k] = sample.events * k / shards;
+        println(String.format("Splitting %d events into %d shards.", sample.events, shards));
+        if (LheStream.isCompressed(lheFilePath))
+            return splitStream(sample, outPattern, bounds);
+        ForkJoinPool pool = new ForkJoinPool(Math.min(shards, Runtime.getRuntime().availableProcessors()));
+        try (EventIndex index = EventIndex.open(lheFilePath))
+        {
+            List<ForkJoinTask<Long>> tasks = new ArrayList<>();
+            for (int k=0; k<shards; k++)
+            {
+                int shard = k;
+                tasks.add(pool.submit(() -> {
+                    double f = scale(sample, bounds[shard + 1] - bounds[shard]);
+                    try (MadWriter writer = new MadWriter(String.format(outPattern, shard + 1),
+                            shardHeader(sample, bounds, shard)))
+                    {
+                        index.readEvents(bounds[shard], bounds[shard + 1],
+                                (buf, from, to) -> writer.event(buf, from, to, f));
+                        return writer.events();
+                    }
+                    catch (IOException e)
+                    {
+                        throw new UncheckedIOException(e);
+                    }
+                }));
+            }
+            long n = 0;
+            for (ForkJoinTask<Long> task: tasks)
+                n += task.join();
+            return n;
+        }
+        catch (UncheckedIOException e)
+        {
+            throw e.getCause();
+        }
+        finally
+        {
+            pool.shutdown();
+        }
+    }
+
+    private static long splitStream(Sample sample, String outPattern, long[] bounds) throws IOException
+    {
+        MadWriter[] writer = new MadWriter[1];
+        int[] shard = {-1};
+        long[] n = {0};
+        try (LheStream in = LheStream.open(sample.path))
+        {
+            in.read((buf, from, to) -> {
+                // move on to the shard of the event, skipping empty ones.
+                while (n[0] >= bounds[shard[0] + 1])
+                {
+                    if (writer[0] != null)
+                        writer[0].close();
+                    shard[0]++;
+                    writer[0] = new MadWriter(String.format(outPattern, shard[0] + 1),
+                            shardHeader(sample, bounds, shard[0]));
+                }
+                writer[0].event(buf, from, to, scale(sample, bounds[shard[0] + 1] - bounds[shard[0]]));
+                n[0]++;
+            });
+        }
+        finally
+        {
+            if (writer[0] != null)
+                writer[0].close();
+        }
+        // shards left empty still get a file.
+        for (int k=shard[0]+1; k<bounds.length-1; k++)
+            new MadWriter(String.format(outPattern, k + 1), shardHeader(sample, bounds, k)).close();
+        return n[0];
+    }
+
+    /**
+     * @return Header of the given shard, its generation info counting the events of the shard.
+     */
+    private static String shardHeader(Sample sample, long[] bounds, int shard)
+    {
+        return withGenerationInfo(sample.header, bounds[shard + 1] - bounds[shard], sample.init.totalCrossSection());
+    }
+
+    /**
+     * @return Factor of the weights of a shard of the given number of events.
+     */
+    private static double scale(Sample sample, long events)
+    {
+        return sample.summed && events != 0 ? (double) sample.events / events : 1;
+    }
+}
@@ -0,0 +1,308 @@
+package madread;
+
+import java.io.BufferedInputStream;
+import java.io.Closeable;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.Inflater;
+import java.util.zip.InflaterInputStream;
+import java.util.zip.ZipInputStream;
+
+/**
+ * Incremental reader of a .lhe file. The stream is read through a fixed buffer and the <code>&lt;event&gt;</code> ...
+ * <code>&lt;/event&gt;</code> boundaries are recognised on the fly, each event being handed to an
+ * <code>EventHandler</code> as soon as it is complete; peak memory is therefore one event plus the read buffer,
+ * regardless of the size of the file.
+ */
+public class LheStream implements Closeable
+{
+    /**
+     * Size in bytes of the read buffer.
+     */
+    public static final int BUFFER_SIZE = 1 << 16;
+
+    /**
+     * Number of buffers of inflated bytes a decompressing thread may run ahead of the parsing.
+     */
+    private static final int PREFETCH_BLOCKS = 16;
+
+    private static final byte[] OPEN = "<event".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] CLOSE = "</event>".getBytes(StandardCharsets.US_ASCII);
+
+    private final InputStream in;
+
+    private final byte[] buf;
+
+    private int pos;
+
+    private int lim;
+
+    /**
+     * Reusable storage of the event being assembled, grown to the largest event encountered.
+     */
+    private byte[] event = new byte[1 << 12];
+
+    private ByteBuffer eventView = ByteBuffer.wrap(event);
+
+    private int eventLength;
+
+    /**
+     * Everything preceding the first event, i.e. the header and the init block.
+     */
+    private byte[] header = new byte[1 << 12];
+
+    private int headerLength;
+
+    private long bytesRead;
+
+    private long events;
+
+    public LheStream(InputStream in)
+    {
+        this.in = in;
+        this.buf = new byte[BUFFER_SIZE];
+    }
+
+    /**
+     * Open a stream over the .lhe file at the given path. A file compressed with gzip (e.g. unweighted_events.lhe.gz),
+     * zlib or zip (its first entry) is recognised by its leading bytes, whatever its name, and inflated on the fly on
+     * a separate thread, ahead of the parsing.
+     * @param lheFilePath Path (in string) to the .lhe file.
+     * @throws IOException
+     */
+    public static LheStream open(String lheFilePath) throws IOException
+    {
+        return new LheStream(input(lheFilePath));
+    }
+
+    /**
+     * Open the decompressed contents of the file at the given path, as described by <code>open</code>.
+     * @param lheFilePath Path (in string) to the .lhe file.
+     * @throws IOException
+     */
+    public static InputStream input(String lheFilePath) throws IOException
+    {
+        Codec codec = codec(lheFilePath);
+        if (codec == Codec.NONE)
+            return new FileInputStream(lheFilePath);
+        InputStream raw = new BufferedInputStream(new FileInputStream(lheFilePath), BUFFER_SIZE);
+        InputStream in;
+        switch (codec)
+        {
+            case GZIP:
+                in = new GZIPInputStream(raw, BUFFER_SIZE);
+                break;
+            case ZLIB:
+                in = new InflaterInputStream(raw, new Inflater(), BUFFER_SIZE);
+                break;
+            default:
+                ZipInputStream zip = new ZipInputStream(raw);
+                if (zip.getNextEntry() == null)
+                    throw new RuntimeException("Empty zip archive " + lheFilePath + "!");
+                in = zip;
+        }
+        return new PrefetchInputStream(in, BUFFER_SIZE, PREFETCH_BLOCKS);
+    }
+
+    /**
+     * @return Whether the file at the given path is compressed in one of the formats <code>open</code> inflates.
+     * @throws IOException
+     */
+    public static boolean isCompressed(String lheFilePath) throws IOException
+    {
+        return codec(lheFilePath) != Codec.NONE;
+    }
+
+    /**
+     * Identify the compression of a file by its first two bytes.
+     */
+    private static Codec codec(String path) throws IOException
+    {
+        byte[] magic = new byte[2];
+        try (InputStream in = new FileInputStream(path))
+        {
+            if (in.readNBytes(magic, 0, 2) < 2)
+                return Codec.NONE;
+        }
+        int b0 = magic[0] & 0xff, b1 = magic[1] & 0xff;
+        if (b0 == 0x1f && b1 == 0x8b)
+            return Codec.GZIP;
+        if (b0 == 'P' && b1 == 'K')
+            return Codec.ZIP;
+        // deflate method with a valid header checksum.
+        if ((b0 & 0x0f) == 8 && (b0 << 8 | b1) % 31 == 0)
+            return Codec.ZLIB;
+        return Codec.NONE;
+    }
+
+    private enum Codec
+    {
+        NONE, GZIP, ZLIB, ZIP
+    }
+
+    /**
+     * Read the stream to its end, handing every event to the handler in order of appearance.
+     * @param handler Receiver of the events.
+     * @return The number of events read.
+     * @throws IOException
+     */
+    public long read(EventHandler handler) throws IOException
+    {
+        boolean inside = false;
+        // number of bytes of the tag being looked for matched so far.
+        int state = 0;
+        // length of the opening tag, attributes included, once its '<' is matched.
+        int tagLength = 0;
+        while (fill())
+        {
+            int start = pos;
+            for (; pos < lim; pos++)
+            {
+                byte b = buf[pos];
+                if (!inside)
+                {
+                    if (state > 0)
+                        tagLength++;
+                    if (state > OPEN.length)
+                    {
+                        // within the attributes of the opening tag.
+                        if (b != '>')
+                            continue;
+                    }
+                    else if (state == OPEN.length)
+                    {
+                        if (b != '>' && b != ' ' && b != '\t' && b != '\n' && b != '\r')
+                        {
+                            state = b == '<' ? 1 : 0;
+                            tagLength = state;
+                            continue;
+                        }
+                        if (b != '>')
+                        {
+                            state++;
+                            continue;
+                        }
+                    }
+                    else
+                    {
+                        if (b == OPEN[state])
+                            state++;
+                        else
+                            state = b == '<' ? 1 : 0;
+                        if (state == 1)
+                            tagLength = 1;
+                        continue;
+                    }
+                    // the opening tag is complete.
+                    if (events == 0)
+                    {
+                        appendHeader(start, pos + 1);
+                        headerLength -= tagLength;
+                    }
+                    inside = true;
+                    state = 0;
+                    eventLength = 0;
+                    start = pos + 1;
+                }
+                else
+                {
+                    if (b == CLOSE[state])
+                        state++;
+                    else
+                        state = b == '<' ? 1 : 0;
+                    if (state == CLOSE.length)
+                    {
+                        appendEvent(start, pos + 1);
+                        eventLength -= CLOSE.length;
+                        handler.event(eventView, 0, eventLength);
+                        events++;
+                        inside = false;
+                        state = 0;
+                        tagLength = 0;
+                        start = pos + 1;
+                    }
+                }
+            }
+            if (inside)
+                appendEvent(start, lim);
+            else if (events == 0)
+                appendHeader(start, lim);
+        }
+        if (inside)
+            throw new RuntimeException("Unterminated event after event " + events + "!");
+        return events;
+    }
+
+    /**
+     * @return Whether there are unread bytes in the buffer after a refill if needed.
+     */
+    private boolean fill() throws IOException
+    {
+        if (pos < lim)
+            return true;
+        int n = in.read(buf, 0, buf.length);
+        if (n <= 0)
+            return false;
+        bytesRead += n;
+        pos = 0;
+        lim = n;
+        return true;
+    }
+
+    private void appendEvent(int from, int to)
+    {
+        int n = to - from;
+        if (eventLength + n > event.length)
+        {
+            event = Arrays.copyOf(event, Math.max(event.length * 2, eventLength + n));
+            eventView = ByteBuffer.wrap(event);
+        }
+        System.arraycopy(buf, from, event, eventLength, n);
+        eventLength += n;
+    }
+
+    private void appendHeader(int from, int to)
+    {
+        int n = to - from;
+        if (headerLength + n > header.length)
+            header = Arrays.copyOf(header, Math.max(header.length * 2, headerLength + n));
+        System.arraycopy(buf, from, header, headerLength, n);
+        headerLength += n;
+    }
+
+    /**
+     * @return The text preceding the first event, i.e. the header and the init block, once the first event is read.
+     */
+    public String header()
+    {
+        return new String(header, 0, headerLength, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return Number of bytes consumed from the underlying stream.
+     */
+    public long bytesRead()
+    {
+        return bytesRead;
+    }
+
+    /**
+     * @return Number of events handed out so far.
+     */
+    public long events()
+    {
+        return events;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        in.close();
+    }
+}
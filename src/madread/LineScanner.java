@@ -0,0 +1,483 @@
+package madread;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Scanner of the particle lines of an event, i.e.
+ * <pre>IDUP ISTUP MOTHUP1 MOTHUP2 ICOLUP1 ICOLUP2 PUP1 PUP2 PUP3 PUP4 PUP5 VTIMUP SPINUP</pre>
+ * which walks the bytes of the line and parses the integer columns and the Fortran styled doubles
+ * (<code>+1.2345678901e+02</code>) directly into primitives, without the intermediate strings a regex would produce.
+ * The scanner is reused from line to line and holds the fields of the last line scanned, which may also be the header
+ * line of the event, <code>NUP IDPRUP XWGTUP SCALUP AQEDUP AQCDUP</code>.
+ * <br/><br/>
+ * In strict mode a line is accepted only under the constraints of the particle-line regex formerly used by
+ * <code>MadReader</code>: signed integers for the PDG code and status, unsigned ones for mothers and colours,
+ * explicitly signed 3-momentum components, and exactly 13 fields. Otherwise only well-formed numbers are required, and
+ * fields past the 13th are ignored.
+ */
+public class LineScanner
+{
+    // Indices of the fields in a line.
+    public static final int PDG = 0;
+    public static final int STATUS = 1;
+    public static final int MOTHER1 = 2;
+    public static final int MOTHER2 = 3;
+    public static final int COLOR1 = 4;
+    public static final int COLOR2 = 5;
+    public static final int PX = 6;
+    public static final int PY = 7;
+    public static final int PZ = 8;
+    public static final int E = 9;
+    public static final int M = 10;
+    public static final int LIFETIME = 11;
+    public static final int SPIN = 12;
+
+    /**
+     * Number of fields in a particle line.
+     */
+    public static final int FIELDS = 13;
+
+    // Indices of the fields in the header line of an event, NUP IDPRUP XWGTUP SCALUP AQEDUP AQCDUP.
+    public static final int NUP = 0;
+    public static final int IDPRUP = 1;
+    public static final int XWGTUP = 2;
+    public static final int SCALUP = 3;
+    public static final int AQEDUP = 4;
+    public static final int AQCDUP = 5;
+
+    /**
+     * Number of fields in the header line of an event.
+     */
+    public static final int HEADER_FIELDS = 6;
+
+    /**
+     * Exact powers of ten, up to the largest exactly representable as a double.
+     */
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    private final boolean strict;
+
+    private final int[] starts = new int[FIELDS];
+
+    private final int[] ends = new int[FIELDS];
+
+    private final long[] ints = new long[FIELDS];
+
+    private final double[] reals = new double[FIELDS];
+
+    /**
+     * Whether the last number parsed was well formed.
+     */
+    private boolean valid;
+
+    /**
+     * @param strict Whether lines are validated as strictly as by the particle-line regex.
+     */
+    public LineScanner(boolean strict)
+    {
+        this.strict = strict;
+    }
+
+    /**
+     * Scan one particle line.
+     * @param buf Buffer holding the line.
+     * @param from Index of the first byte of the line.
+     * @param to Index past the last byte of the line, newline excluded.
+     * @return Whether the line is a valid particle entry; the fields are only meaningful if so.
+     */
+    public boolean scan(ByteBuffer buf, int from, int to)
+    {
+        return scan(buf, from, to, FIELDS, PX);
+    }
+
+    /**
+     * Scan only the PDG code and status of a particle line, enough to decide whether the particle is of interest before
+     * scanning it fully.
+     * @return Whether both fields are well formed.
+     */
+    public boolean scanIds(ByteBuffer buf, int from, int to)
+    {
+        int i = from;
+        for (int f = PDG; f <= STATUS; f++)
+        {
+            i = skipSpace(buf, i, to);
+            int s = i;
+            while (i < to && !isSpace(buf.get(i)))
+                i++;
+            ints[f] = parseLong(buf, s, i);
+            if (!valid)
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * Scan the header line of an event, after which the accessors of its fields, e.g. <code>weight()</code>, are
+     * meaningful instead of those of a particle.
+     * @param buf Buffer holding the line.
+     * @param from Index of the first byte of the line.
+     * @param to Index past the last byte of the line, newline excluded.
+     * @return Whether the line is a valid event header.
+     */
+    public boolean scanHeader(ByteBuffer buf, int from, int to)
+    {
+        return scan(buf, from, to, HEADER_FIELDS, XWGTUP);
+    }
+
+    /**
+     * Scan a line of integer fields followed by real ones.
+     * @param fields Number of fields.
+     * @param firstReal Index of the first real field.
+     */
+    private boolean scan(ByteBuffer buf, int from, int to, int fields, int firstReal)
+    {
+        boolean particle = fields == FIELDS;
+        int i = from;
+        for (int f = 0; f < fields; f++)
+        {
+            i = skipSpace(buf, i, to);
+            if (i == to)
+                return false;
+            int s = i;
+            while (i < to && !isSpace(buf.get(i)))
+                i++;
+            starts[f] = s;
+            ends[f] = i;
+            if (f < firstReal)
+            {
+                if (strict && particle && f >= MOTHER1 && buf.get(s) == '-')
+                    return false;
+                ints[f] = parseLong(buf, s, i);
+            }
+            else
+            {
+                if (strict && particle && f <= PZ && buf.get(s) != '-' && buf.get(s) != '+')
+                    return false;
+                reals[f] = parseDouble(buf, s, i);
+            }
+            if (!valid)
+                return false;
+        }
+        return !strict || skipSpace(buf, i, to) == to;
+    }
+
+    public int pdg()
+    {
+        return (int) ints[PDG];
+    }
+
+    public int status()
+    {
+        return (int) ints[STATUS];
+    }
+
+    public int mother1()
+    {
+        return (int) ints[MOTHER1];
+    }
+
+    public int mother2()
+    {
+        return (int) ints[MOTHER2];
+    }
+
+    public int color1()
+    {
+        return (int) ints[COLOR1];
+    }
+
+    public int color2()
+    {
+        return (int) ints[COLOR2];
+    }
+
+    public double px()
+    {
+        return reals[PX];
+    }
+
+    public double py()
+    {
+        return reals[PY];
+    }
+
+    public double pz()
+    {
+        return reals[PZ];
+    }
+
+    public double e()
+    {
+        return reals[E];
+    }
+
+    public double m()
+    {
+        return reals[M];
+    }
+
+    public double lifetime()
+    {
+        return reals[LIFETIME];
+    }
+
+    public double spin()
+    {
+        return reals[SPIN];
+    }
+
+    /**
+     * @return Number of particles of the event whose header was last scanned.
+     */
+    public int nup()
+    {
+        return (int) ints[NUP];
+    }
+
+    /**
+     * @return Process id of the event whose header was last scanned.
+     */
+    public int idprup()
+    {
+        return (int) ints[IDPRUP];
+    }
+
+    /**
+     * @return Weight of the event whose header was last scanned.
+     */
+    public double weight()
+    {
+        return reals[XWGTUP];
+    }
+
+    /**
+     * @return Scale in GeV of the event whose header was last scanned.
+     */
+    public double scale()
+    {
+        return reals[SCALUP];
+    }
+
+    /**
+     * @return QED coupling of the event whose header was last scanned.
+     */
+    public double aqed()
+    {
+        return reals[AQEDUP];
+    }
+
+    /**
+     * @return QCD coupling of the event whose header was last scanned.
+     */
+    public double aqcd()
+    {
+        return reals[AQCDUP];
+    }
+
+    /**
+     * @return Index of the first byte of the given field in the line last scanned.
+     */
+    public int start(int field)
+    {
+        return starts[field];
+    }
+
+    /**
+     * @return Index past the last byte of the given field in the line last scanned.
+     */
+    public int end(int field)
+    {
+        return ends[field];
+    }
+
+    /**
+     * Text of the given field of the line last scanned, for the rare consumers needing it verbatim.
+     */
+    public String text(ByteBuffer buf, int field)
+    {
+        byte[] b = new byte[ends[field] - starts[field]];
+        for (int i = 0; i < b.length; i++)
+            b[i] = buf.get(starts[field] + i);
+        return new String(b, StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Parse a decimal integer with an optional sign.
+     * @return The integer; <code>isValid()</code> tells whether the bytes were well formed.
+     */
+    public long parseLong(ByteBuffer buf, int from, int to)
+    {
+        int i = from;
+        boolean neg = false;
+        if (i < to && (buf.get(i) == '-' || buf.get(i) == '+'))
+            neg = buf.get(i++) == '-';
+        valid = i < to && to - i <= 18;
+        long v = 0;
+        for (; i < to; i++)
+        {
+            int d = buf.get(i) - '0';
+            if (d < 0 || d > 9)
+            {
+                valid = false;
+                return 0;
+            }
+            v = v * 10 + d;
+        }
+        return neg ? -v : v;
+    }
+
+    /**
+     * Parse a decimal floating point number, with an optional sign, fraction and exponent marked by any of
+     * <code>eEdD</code>. Numbers of at most 15 significant digits and a decimal exponent within &plusmn;22, which
+     * covers everything MadGraph writes, are converted exactly with a single multiplication or division; anything
+     * else is delegated to <code>Double.parseDouble</code>.
+     * @return The number; <code>isValid()</code> tells whether the bytes were well formed.
+     */
+    public double parseDouble(ByteBuffer buf, int from, int to)
+    {
+        int i = from;
+        boolean neg = false;
+        if (i < to && (buf.get(i) == '-' || buf.get(i) == '+'))
+            neg = buf.get(i++) == '-';
+        long mantissa = 0;
+        int digits = 0;
+        int exp10 = 0;
+        boolean any = false;
+        byte b = 0;
+        for (; i < to; i++)
+        {
+            b = buf.get(i);
+            if (b < '0' || b > '9')
+                break;
+            any = true;
+            if (digits < 18)
+            {
+                mantissa = mantissa * 10 + (b - '0');
+                if (mantissa != 0)
+                    digits++;
+            }
+            else
+            {
+                exp10++;
+                digits++;
+            }
+        }
+        if (i < to && b == '.')
+        {
+            for (i++; i < to; i++)
+            {
+                b = buf.get(i);
+                if (b < '0' || b > '9')
+                    break;
+                any = true;
+                if (digits < 18)
+                {
+                    mantissa = mantissa * 10 + (b - '0');
+                    exp10--;
+                    if (mantissa != 0)
+                        digits++;
+                }
+                else
+                    digits++;
+            }
+        }
+        if (!any)
+            return fallback(buf, from, to);
+        if (i < to)
+        {
+            if (b != 'e' && b != 'E' && b != 'd' && b != 'D')
+            {
+                valid = false;
+                return 0;
+            }
+            i++;
+            boolean eneg = false;
+            if (i < to && (buf.get(i) == '-' || buf.get(i) == '+'))
+                eneg = buf.get(i++) == '-';
+            if (i == to)
+            {
+                valid = false;
+                return 0;
+            }
+            int e = 0;
+            for (; i < to; i++)
+            {
+                int d = buf.get(i) - '0';
+                if (d < 0 || d > 9)
+                {
+                    valid = false;
+                    return 0;
+                }
+                if (e < 100000)
+                    e = e * 10 + d;
+            }
+            exp10 += eneg ? -e : e;
+        }
+        valid = true;
+        double v;
+        if (mantissa == 0)
+            v = 0;
+        else if (digits <= 15 && exp10 >= -22 && exp10 <= 22)
+            v = exp10 < 0 ? mantissa / POW10[-exp10] : mantissa * POW10[exp10];
+        else
+            return fallback(buf, from, to);
+        return neg ? -v : v;
+    }
+
+    /**
+     * @return Whether the last number parsed was well formed.
+     */
+    public boolean isValid()
+    {
+        return valid;
+    }
+
+    /**
+     * Slow path of <code>parseDouble</code> for the numbers it cannot convert exactly, including NaN and infinities.
+     */
+    private double fallback(ByteBuffer buf, int from, int to)
+    {
+        byte[] b = new byte[to - from];
+        for (int i = 0; i < b.length; i++)
+            b[i] = buf.get(from + i);
+        String s = new String(b, StandardCharsets.US_ASCII).replace('d', 'e').replace('D', 'e');
+        try
+        {
+            valid = true;
+            return Double.parseDouble(s);
+        }
+        catch (NumberFormatException e)
+        {
+            valid = false;
+            return 0;
+        }
+    }
+
+    /**
+     * @return Index of the first non-blank byte at or after <code>from</code>, or <code>to</code> if none.
+     */
+    public static int skipSpace(ByteBuffer buf, int from, int to)
+    {
+        while (from < to && isSpace(buf.get(from)))
+            from++;
+        return from;
+    }
+
+    /**
+     * @return Index of the end of the line starting at <code>from</code>, i.e. of its newline or <code>to</code>.
+     */
+    public static int lineEnd(ByteBuffer buf, int from, int to)
+    {
+        while (from < to && buf.get(from) != '\n')
+            from++;
+        return from;
+    }
+
+    private static boolean isSpace(byte b)
+    {
+        return b == ' ' || b == '\t' || b == '\r' || b == '\n';
+    }
+}
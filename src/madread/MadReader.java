@@ -3,14 +3,11 @@ package madread;
 import static madread.Print.*;
 
 import java.io.File;
-import java.io.FileNotFoundException;
 import java.io.IOException;
-import java.io.PrintWriter;
+import java.io.InputStream;
+import java.nio.ByteBuffer;
 import java.nio.charset.StandardCharsets;
-import java.nio.file.Files;
-import java.nio.file.Paths;
 import java.util.Arrays;
-import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.regex.*;
 
@@ -29,30 +26,69 @@ public class MadReader
      */
     public final int multiplicity;
 
-    private final String eventsText;
+    private final String iheFilePath;
+
+    /**
+     * Whole text of the file, only loaded for the non-streaming pipeline of <code>parse</code>.
+     */
+    private String eventsText;
 
     private String eventBlock;
 
+    /**
+     * Selection of the events parsed, applied within the parsing loop.
+     */
+    private EventFilter filter = EventFilter.ALL;
+
+    /**
+     * Selection of the particles stored, by default the reagents and products by PDG code and status.
+     */
+    private ParticleSelector selector;
+
     private LinkedList<String> eventEntries;
 
     // Extracted physical quantities of interest below.
 
     /**
-     * 4-momenta of incoming and outgoing particles, the first component being energy (not the 4th, as recorded in MadGraph file).
+     * Incoming and outgoing particles of the parsed events: 4-momenta, energy being the first component (not the 4th,
+     * as recorded in MadGraph file), masses, PDG codes, status, helicities and mothers.
+     */
+    private EventStore store;
+
+    /**
+     * Text preceding the first event of the file, i.e. the header and the init block, read along with the events.
+     */
+    private String header;
+
+    /**
+     * Beams, PDFs, cross sections and multi-weight identifiers of the file, read along with the events.
      */
-    private String[][][] momenta;
+    private InitBlock init;
 
     /**
-     * Masses.
+     * Counters and timers of the last parsing pass.
      */
-    private String[] masses;
+    private ParseStats stats;
+
+    /**
+     * Interval in milliseconds between progress lines, and whether progress and summaries are printed at all.
+     */
+    private long progressMillis;
+
+    private boolean instrumented;
+
+    /**
+     * Cache of parsed events consulted by the parsing methods, if any.
+     */
+    private ParseCache cache;
 
     /**
      * Construct a reader for a MadGraph generated unweighted_events.ihe file that parses it to extract relevant data
-     * for export.
+     * for export. The file is not read until parsing is requested.
      * @param reagents Number code for incoming particles.
      * @param products Number code for outgoing particles.
-     * @param iheFilePath Path (in string) to unweighted_events.ihe as generated by MadGraph.
+     * @param iheFilePath Path (in string) to unweighted_events.ihe as generated by MadGraph, which may also be
+     *                    compressed, e.g. unweighted_events.lhe.gz.
      * @throws IOException
      */
     public MadReader(int[] reagents, int[] products, String iheFilePath) throws IOException
@@ -60,9 +96,8 @@ public class MadReader
         this.reagents = Arrays.copyOf(reagents, reagents.length);
         this.products = Arrays.copyOf(products, products.length);
         multiplicity = reagents.length + products.length;
-
-        // Read unweighted events file in as a single string. The following command SHOULD do.
-        eventsText = new String(Files.readAllBytes(Paths.get(iheFilePath)), StandardCharsets.UTF_8);
+        this.iheFilePath = iheFilePath;
+        selector = ParticleSelector.of(reagents, products);
     }
 
     /**
@@ -70,16 +105,118 @@ public class MadReader
      * automatically initiate parsing.
      * @param path If provided, a .csv file recording data will be stored at the given directory.
      */
-    public void parse(String... path) throws FileNotFoundException {
-        // Parse into entries of events.
-        extractEventBlock();
-        extractEvents();
-        // Extract selected kinematics from events.
-        extractMomenta(path);
+    public void parse(String... path) throws IOException {
+        // Parse the events straight into primitive columns as they are read.
+        if (fromCache(path))
+            return;
+        println("Parsing events and extracting momenta data.");
+        ParseStats stats = newStats("parse");
+        EventParser parser = newParser(1024);
+        long bytes = read(stats.time(parser));
+        this.store = parser.getStore();
+        // if requested for output
+        if (path.length != 0)
+            stats.write(() -> writeMomenta(path[0]));
+        finish(stats.finish(bytes, parser.rejected(), parser.unmatched()));
+        toCache();
     }
 
-    public void extractEventBlock()
+    /**
+     * Counterpart of <code>parse</code> for uncompressed files, reading them through memory mapping: the bytes are
+     * scanned where they are mapped instead of being read into buffers. Compressed files, which cannot be mapped, are
+     * handed to <code>parse</code>.
+     * @param path If provided, a .csv file recording data will be stored at the given directory.
+     */
+    public void parseMapped(String... path) throws IOException
     {
+        if (LheStream.isCompressed(iheFilePath))
+        {
+            parse(path);
+            return;
+        }
+        if (fromCache(path))
+            return;
+        println("Parsing mapped events and extracting momenta data.");
+        ParseStats stats = newStats("parseMapped");
+        EventParser parser = newParser(1024);
+        try (MappedLheReader in = new MappedLheReader(iheFilePath))
+        {
+            in.read(stats.time(parser));
+            readHeader(in.header());
+        }
+        this.store = parser.getStore();
+        // if requested for output
+        if (path.length != 0)
+            stats.write(() -> writeMomenta(path[0]));
+        finish(stats.finish(new File(iheFilePath).length(), parser.rejected(), parser.unmatched()));
+        toCache();
+    }
+
+    /**
+     * Multi-core counterpart of <code>parse</code>: the file is split into ranges of events parsed concurrently, the
+     * results being merged in the original order of the events.
+     * @param parallelism Number of threads parsing concurrently.
+     * @param path If provided, a .csv file recording data will be stored at the given directory.
+     */
+    public void parseParallel(int parallelism, String... path) throws IOException
+    {
+        if (fromCache(path))
+            return;
+        println(String.format("Parsing events on %d threads.", parallelism));
+        ParseStats stats = newStats("parseParallel");
+        ParallelParser parser = new ParallelParser(parallelism, true, filter, selector);
+        store = parser.parse(iheFilePath);
+        readHeader(parser.header());
+        // if requested for output
+        if (path.length != 0)
+            stats.write(() -> writeMomenta(path[0]));
+        finish(stats.finish(new File(iheFilePath).length(), store.size() + parser.rejected() + parser.unmatched(),
+                parser.rejected(), parser.unmatched(), parallelism));
+        toCache();
+    }
+
+    /**
+     * Counterpart of <code>parse</code> running as a pipeline (see <code>EventPipeline</code>): the file is read ahead,
+     * split into batches of events parsed on several threads and the momenta of each batch written as soon as it is
+     * parsed, in the order of the file, so that reading, parsing and writing overlap.
+     * @param parallelism Number of threads parsing concurrently.
+     * @param path If provided, a .csv file recording data will be stored at the given directory.
+     */
+    public void parsePipelined(int parallelism, String... path) throws IOException
+    {
+        if (fromCache(path))
+            return;
+        println(String.format("Parsing events in a pipeline of %d parsing threads.", parallelism));
+        ParseStats stats = newStats("parsePipelined");
+        EventPipeline pipeline = pipeline().threads(parallelism, 1).retain();
+        if (path.length != 0)
+            pipeline.momenta(path[0]);
+        store = pipeline.run();
+        readHeader(pipeline.header());
+        stats.write(pipeline.writeNanos());
+        finish(stats.finish(pipeline.bytesRead(), pipeline.events(), pipeline.rejected(), pipeline.unmatched(),
+                parallelism));
+        toCache();
+    }
+
+    /**
+     * @return A pipeline over the file with the filter and selection of particles of this reader, to which observables
+     * and outputs are added, e.g. <code>pipeline().compute("m", Observable.mass(2, 3)).observables("m.csv").run()
+     * </code>.
+     */
+    public EventPipeline pipeline()
+    {
+        return new EventPipeline(iheFilePath, filter, selector);
+    }
+
+    public void extractEventBlock() throws IOException
+    {
+        // Read unweighted events file in as a single string. The following command SHOULD do.
+        if (eventsText == null)
+            try (InputStream in = LheStream.input(iheFilePath))
+            {
+                eventsText = new String(in.readAllBytes(), StandardCharsets.UTF_8);
+            }
         // Create regex objects.
         String rex = "</init>\n(.*)\n</LesHouchesEvents>";
         Pattern form = Pattern.compile(rex, Pattern.DOTALL);
@@ -88,6 +225,7 @@ public class MadReader
         // Extract event block.
         mat.find();
         this.eventBlock = mat.group(1);
+        readHeader(eventsText.substring(0, mat.start(1)));
     }
 
     public void extractEvents()
@@ -95,7 +233,7 @@ public class MadReader
         if (eventBlock == null)
             throw new RuntimeException("Event block has not been extracted! Call extractEventBlock() first.");
         println("Parsing event block into events.");
-        String rex = "<event>([^<>]+).*?</event>";
+        String rex = "<event[^>]*>(.*?)</event>";
         Pattern form = Pattern.compile(rex, Pattern.DOTALL);
         Matcher mat = form.matcher(eventBlock);
 
@@ -113,55 +251,462 @@ public class MadReader
      * @param path If provided, a .csv file will be generated recording the extracted momenta at the given directory.
      *             e.g. ./src/madread/pp_a_tau-tau+/run_01/sim_momenta/
      */
-    public void extractMomenta(String... path) throws FileNotFoundException {
+    public void extractMomenta(String... path) throws IOException {
         if (eventEntries == null)
             throw new RuntimeException("Event entries have not been isolated! Run extractEvents()!");
         println("Extracting momenta data from event entries.");
 
-        momenta = new String[multiplicity][eventEntries.size()][4];
-        String rex = "\\s*(?<pdg>-?\\d+)\\s+(?<inout>-?\\d+)\\s+(?<parent1>\\d+)\\s+(?<parent2>\\d+)\\s+(?<color1>\\d+)\\s+(?<color2>\\d+)" +
-                "\\s+(?<px>[-+]\\S+)\\s+(?<py>[-+]\\S+)\\s+(?<pz>[-+]\\S+)\\s+(?<E>\\S+)\\s+(?<m>\\S+)\\s+(?<dist>\\S+)\\s+(?<helicity>\\S+)\\s*";
-        Pattern form = Pattern.compile(rex);
-
-        // counter for counting events.
-        int e = 0;
+        EventParser parser = newParser(eventEntries.size());
         // extract the particle kinematics, as given after the first line.
         for (String eve: eventEntries)
         {
-            String[] lines = eve.split("\n");
-            for (int i=1; i<=multiplicity; i++)
+            byte[] bytes = eve.getBytes(StandardCharsets.US_ASCII);
+            parser.event(ByteBuffer.wrap(bytes), 0, bytes.length);
+        }
+        report(parser.rejected(), parser.unmatched());
+        store = parser.getStore();
+        // if requested for output
+        if (path.length != 0)
+            writeMomenta(path[0]);
+    }
+
+    /**
+     * Write the momenta of the parsed events into sim_momenta_*.csv, one file per particle.
+     * @param path Directory of the files, e.g. ./src/madread/pp_a_tau-tau+/run_01/sim_momenta/
+     */
+    private void writeMomenta(String path) throws IOException
+    {
+        CsvExport.momenta(store, path);
+    }
+
+    /**
+     * Write the momenta of the parsed events into a binary columnar file, the compact counterpart of the
+     * sim_momenta_*.csv files read back by <code>ColumnarReader</code>: columns E_i, px_i, py_i and pz_i for every
+     * selected particle i counted from 1, and the PDG codes of the selected particles in the header. The header lines
+     * of the events follow as columns NUP, IDPRUP, XWGTUP, SCALUP, AQEDUP and AQCDUP, and their multi-weights as
+     * w_1, w_2, ... if every event has as many.
+     * @param file Path (in string) of the file, e.g. ./src/madread/pp_a_tau-tau+/run_01/sim_momenta.col
+     * @param compress Whether the columns are deflated block by block.
+     * @throws IOException
+     */
+    public void writeColumns(String file, boolean compress) throws IOException
+    {
+        EventStore store = getStore();
+        if (store.multiplicity == 0)
+            throw new RuntimeException("Events of varying length cannot be written per particle!");
+        try (ColumnarWriter out = new ColumnarWriter(file, selector.getPdg(), store.size(), compress))
+        {
+            for (int i=0; i<store.multiplicity; i++)
             {
-                Matcher mat = form.matcher(lines[i]);
-                if(!mat.find())
-                    throw new RuntimeException("Invalid kinematical entry of particle " + i);
-                else
+                int p = i;
+                out.addDoubles("E_" + (i+1), e -> store.e(e, p));
+                out.addDoubles("px_" + (i+1), e -> store.px(e, p));
+                out.addDoubles("py_" + (i+1), e -> store.py(e, p));
+                out.addDoubles("pz_" + (i+1), e -> store.pz(e, p));
+            }
+            out.addInts("NUP", store::nup);
+            out.addInts("IDPRUP", store::idprup);
+            out.addDoubles("XWGTUP", store::weight);
+            out.addDoubles("SCALUP", store::scale);
+            out.addDoubles("AQEDUP", store::aqed);
+            out.addDoubles("AQCDUP", store::aqcd);
+            int weights = store.size() == 0 ? 0 : store.weights(0);
+            for (int e=1; e<store.size() && weights != 0; e++)
+                if (store.weights(e) != weights)
+                    weights = 0;
+            for (int i=0; i<weights; i++)
+            {
+                int w = i;
+                out.addDoubles("w_" + (i+1), e -> store.weight(e, w));
+            }
+        }
+    }
+
+    /**
+     * Write the parsed events into a .lhe file, compressed if its name ends in .gz, after the header and init block of
+     * this file. Events are re-serialised from the store, so every particle must be selected with
+     * <code>ParticleSelector.ALL</code>: the store keeps no line numbers of a partial selection to renumber the mothers
+     * by. Only the header line, the particles and the multi-weights of an event are written; <code>&lt;mgrwt&gt;</code>
+     * and any other tag within it are dropped, which <code>skim</code>, copying events verbatim, keeps.
+     * @param lheFilePath Path (in string) of the file.
+     * @throws IOException
+     */
+    public void writeEvents(String lheFilePath) throws IOException
+    {
+        if (!selector.isAll())
+            throw new RuntimeException("Only events of every particle selected can be written as valid LHE!");
+        EventStore store = getStore();
+        long start = System.nanoTime();
+        try (MadWriter out = new MadWriter(lheFilePath, header == null ? "" : header))
+        {
+            out.write(store);
+            out.flush();
+            CsvExport.report(out.bytesWritten(), System.nanoTime() - start);
+        }
+    }
+
+    /**
+     * Copy the events of the file accepted by the filter verbatim into a .lhe file, compressed if its name ends in
+     * .gz, along with the header and init block, in a single streaming pass. Every line of an accepted event is kept,
+     * whichever particles are selected.
+     * @param lheFilePath Path (in string) of the file.
+     * @return The number of events written.
+     * @throws IOException
+     */
+    public long skim(String lheFilePath) throws IOException
+    {
+        println("Skimming events.");
+        ParseStats stats = newStats("skim");
+        EventParser parser = newParser(1);
+        EventStore event = parser.getStore();
+        MadWriter[] out = new MadWriter[1];
+        try (LheStream in = LheStream.open(iheFilePath))
+        {
+            in.read(stats.time((buf, from, to) -> {
+                // the header is complete once the first event is found.
+                if (out[0] == null)
+                    out[0] = new MadWriter(lheFilePath, in.header());
+                parser.event(buf, from, to);
+                if (event.size() == 0)
+                    return;
+                long t = System.nanoTime();
+                out[0].event(buf, from, to);
+                stats.write(System.nanoTime() - t);
+                event.clear();
+            }));
+            readHeader(in.header());
+            if (out[0] == null)
+                out[0] = new MadWriter(lheFilePath, in.header());
+            finish(stats.finish(in.bytesRead(), parser.rejected(), parser.unmatched()));
+            return out[0].events();
+        }
+        finally
+        {
+            if (out[0] != null)
+                out[0].close();
+        }
+    }
+
+    /**
+     * Stream the events of the file one at a time to the handler, without holding more than the event at hand in
+     * memory.
+     * @param handler Receiver of the events.
+     * @return The number of events read.
+     * @throws IOException
+     */
+    public long stream(EventHandler handler) throws IOException
+    {
+        ParseStats stats = newStats("stream");
+        read(stats.time(handler));
+        this.stats = stats.finish(-1, 0, 0);
+        return stats.events();
+    }
+
+    /**
+     * Stream the events of the file to the handler and read the header.
+     * @return The number of bytes read.
+     */
+    private long read(EventHandler handler) throws IOException
+    {
+        try (LheStream in = LheStream.open(iheFilePath))
+        {
+            in.read(handler);
+            readHeader(in.header());
+            return in.bytesRead();
+        }
+    }
+
+    /**
+     * Streaming counterpart of <code>parse</code> for files too large to be held in memory: events are read
+     * incrementally and the momenta of each written out as soon as the event is parsed, so that memory stays bounded
+     * by a single event regardless of the size of the file. The momenta are not retained in the reader.
+     * @param path If provided, the sim_momenta_*.csv files will be written at the given directory.
+     * @return The number of events parsed and accepted by the filter.
+     * @throws IOException
+     */
+    public long parseStreaming(String... path) throws IOException
+    {
+        println("Streaming events and extracting momenta data.");
+        ParseStats stats = newStats("parseStreaming");
+        if (path.length != 0 && selector.isAll())
+            throw new RuntimeException("Events of varying length cannot be written per particle!");
+        CsvWriter[] outs = new CsvWriter[path.length == 0 ? 0 : selector.size()];
+        // holds the event at hand only.
+        EventParser parser = newParser(1);
+        EventStore event = parser.getStore();
+        try
+        {
+            for (int i=0; i<outs.length; i++)
+                outs[i] = new CsvWriter(new File(String.format("%ssim_momenta_%d.csv", path[0], i+1)),
+                        CsvExport.MOMENTA_HEADER);
+            long[] accepted = new long[1];
+            long bytes = read(stats.time((buf, from, to) -> {
+                parser.event(buf, from, to);
+                if (event.size() == 0)
+                    return;
+                accepted[0]++;
+                long t = System.nanoTime();
+                for (int i=0; i<outs.length; i++)
                 {
-                    momenta[i-1][e][0] = mat.group("E");
-                    momenta[i-1][e][1] = mat.group("px");
-                    momenta[i-1][e][2] = mat.group("py");
-                    momenta[i-1][e][3] = mat.group("pz");
+                    outs[i].add(event.e(0, i)).add(event.px(0, i)).add(event.py(0, i)).add(event.pz(0, i));
+                    outs[i].endRow();
                 }
-            }
-            // increment event counter.
-            e++;
+                stats.write(System.nanoTime() - t);
+                event.clear();
+            }));
+            finish(stats.finish(bytes, parser.rejected(), parser.unmatched()));
+            return accepted[0];
+        }
+        finally
+        {
+            for (CsvWriter out: outs)
+                if (out != null)
+                    out.close();
+        }
+    }
+
+    /**
+     * Parse a single event of the file, seeking it through the index of the file, which is built on first use.
+     * @param n Position of the event in the file, counted from 0.
+     * @return Store of the event, empty if it is rejected by the filter or lacks the selected particles.
+     * @throws IOException
+     */
+    public EventStore readEvent(long n) throws IOException
+    {
+        return readEvents(n, n + 1);
+    }
+
+    /**
+     * Parse a slice of the events of the file, seeking it through the index of the file, which is built on first use
+     * and saved as <code>&lt;file&gt;.idx</code>; only the bytes of the slice are read. The events parsed before are
+     * kept.
+     * @param from Position of the first event, counted from 0.
+     * @param to Position past the last event.
+     * @return Store of the events accepted by the filter.
+     * @throws IOException
+     */
+    public EventStore readEvents(long from, long to) throws IOException
+    {
+        EventParser parser = newParser((int) Math.min(to - from, 1024));
+        try (EventIndex index = EventIndex.open(iheFilePath))
+        {
+            index.readEvents(from, to, parser);
         }
+        return parser.getStore();
+    }
+
+    /**
+     * Summarise the events in a single pass: every accepted event is filled into the histograms of the accumulator as
+     * soon as it is parsed and then dropped, so that neither the events nor their momenta are held or written. The
+     * events parsed before are kept.
+     * @param accumulator Observables and their histograms, e.g. <code>new Accumulator(true).add(Observable.mass(2, 3),
+     *                    Histogram.linear("m_tautau", 100, 0, 1000))</code>.
+     * @param parallelism Number of threads parsing concurrently; 1 for a single stream.
+     * @param path If provided, the histograms and summary.csv will be written at the given directory.
+     * @return The accumulator.
+     * @throws IOException
+     */
+    public Accumulator summarise(Accumulator accumulator, int parallelism, String... path) throws IOException
+    {
+        println(String.format("Summarising events on %d threads.", parallelism));
+        ParseStats stats = newStats("summarise");
+        if (parallelism == 1)
+        {
+            EventParser parser = newParser(1).accumulate(accumulator);
+            long bytes = read(stats.time(parser));
+            stats.finish(bytes, parser.rejected(), parser.unmatched());
+        }
+        else
+        {
+            ParallelParser parser = new ParallelParser(parallelism, true, filter, selector);
+            long before = accumulator.events();
+            parser.summarise(iheFilePath, accumulator);
+            readHeader(parser.header());
+            stats.finish(new File(iheFilePath).length(), accumulator.events() - before + parser.rejected()
+                    + parser.unmatched(), parser.rejected(), parser.unmatched(), parallelism);
+        }
+        finish(stats);
         // if requested for output
         if (path.length != 0)
+            accumulator.write(path[0]);
+        return accumulator;
+    }
+
+    /**
+     * Select the events parsed by any of the parsing methods. The filter is evaluated within the parsing loop, so
+     * rejected events are neither stored nor written, and the remaining lines of an event are skipped as soon as one
+     * of its tests fails.
+     * @param filter Selection of the events, e.g. <code>EventFilter.minPt(15, 1, 20).and(EventFilter.weight(0, 1))
+     *               </code>.
+     * @return This reader.
+     */
+    public MadReader filter(EventFilter filter)
+    {
+        this.filter = filter == null ? EventFilter.ALL : filter;
+        return this;
+    }
+
+    /**
+     * Select the particles stored by any of the parsing methods, instead of the reagents and products given at
+     * construction, e.g. to include intermediate resonances by their status, or every particle with
+     * <code>ParticleSelector.ALL</code> for events varying in length, which are then not written per particle.
+     * @param selector Selection of the particles.
+     * @return This reader.
+     */
+    public MadReader select(ParticleSelector selector)
+    {
+        this.selector = selector == null ? ParticleSelector.of(reagents, products) : selector;
+        return this;
+    }
+
+    /**
+     * Print the progress of every parsing pass at the given interval, and once the pass is done a summary of it as a
+     * single line of JSON (see <code>ParseStats.toJson</code>). Counters and timers are kept regardless, as given by
+     * <code>getStats</code>.
+     * @param progressMillis Interval in milliseconds between progress lines; 0 for the summaries only.
+     * @return This reader.
+     */
+    public MadReader instrument(long progressMillis)
+    {
+        this.progressMillis = progressMillis;
+        instrumented = true;
+        return this;
+    }
+
+    /**
+     * Keep the events parsed by <code>parse</code>, <code>parseMapped</code> and <code>parseParallel</code> in a cache,
+     * from which they are mapped back instead of parsed whenever the same file is parsed again with the same selection
+     * of particles. Events are cached only without a filter, as a filter cannot be told apart from another.
+     * @param cache The cache, e.g. <code>new ParseCache("./cache/", 8L &lt;&lt; 30)</code>, or null for none.
+     * @return This reader.
+     */
+    public MadReader cache(ParseCache cache)
+    {
+        this.cache = cache;
+        return this;
+    }
+
+    /**
+     * Load the events from the cache if they are there, writing their momenta if requested.
+     * @return Whether they were.
+     */
+    private boolean fromCache(String... path) throws IOException
+    {
+        if (cache == null || filter != EventFilter.ALL)
+            return false;
+        ParseStats stats = newStats("cache");
+        ParseCache.Entry entry = cache.get(ParseCache.key(iheFilePath, selector));
+        if (entry == null)
+            return false;
+        println("Loading parsed events from the cache.");
+        store = entry.store;
+        readHeader(entry.header);
+        if (path.length != 0)
+            stats.write(() -> writeMomenta(path[0]));
+        finish(stats.finish(0, store.size(), 0, 0, 1));
+        return true;
+    }
+
+    private void toCache() throws IOException
+    {
+        if (cache != null && filter == EventFilter.ALL)
+            cache.put(ParseCache.key(iheFilePath, selector), store, header, selector.getPdg());
+    }
+
+    private ParseStats newStats(String mode) throws IOException
+    {
+        long size = LheStream.isCompressed(iheFilePath) ? -1 : new File(iheFilePath).length();
+        return new ParseStats(iheFilePath, mode, size, instrumented ? progressMillis : 0);
+    }
+
+    /**
+     * Keep the statistics of a finished pass, report its rejected and unmatched events and print its summary if
+     * instrumented.
+     */
+    private void finish(ParseStats stats)
+    {
+        this.stats = stats;
+        report(stats.rejected(), stats.unmatched());
+        if (instrumented)
+            println(stats.toJson());
+    }
+
+    private EventParser newParser(int capacity)
+    {
+        return new EventParser(new EventStore(selector.size(), capacity, false), true, filter, selector);
+    }
+
+    /**
+     * Print the number of events rejected by the filter and of those lacking the selected particles, if any.
+     */
+    private static void report(long rejected, long unmatched)
+    {
+        if (rejected != 0)
+            println(String.format("%d events rejected by the filter.", rejected));
+        if (unmatched != 0)
+            println(String.format("%d events lacking the selected particles skipped.", unmatched));
+    }
+
+    /**
+     * @return The events parsed by the last call to <code>parse</code> or <code>extractMomenta</code>.
+     */
+    public EventStore getStore()
+    {
+        if (store == null)
+            throw new RuntimeException("Events have not been parsed! Run parse()!");
+        return store;
+    }
+
+    /**
+     * @return Counters and timers of the last streaming, mapped, parallel, skimming or summarising pass, or null if
+     * there was none.
+     */
+    public ParseStats getStats()
+    {
+        return stats;
+    }
+
+    private void readHeader(String header)
+    {
+        this.header = header;
+        try
         {
-            // create folder in which momenta of different particles will be stored in separate files; automatically
-            // skipped if directory exists.
-            new File(path[0]).mkdirs();
-            for (int i=0; i<multiplicity; i++)
-            {
-                PrintWriter out = new PrintWriter(new File(String.format("%ssim_momenta_%d.csv", path[0], i+1)).getAbsoluteFile());
-                out.println("E (GeV), px (GeV), py (GeV), pz (GeV)");
-                for (int j=0; j<eventEntries.size(); j++)
-                    out.println(String.join(",", momenta[i][j]));
-                out.close();
-            }
+            init = InitBlock.parse(header);
+        }
+        catch (RuntimeException e)
+        {
+            // the init block is optional to the events; one that cannot be read is left out.
+            init = null;
+            println("Init block not read: " + e.getMessage());
         }
     }
 
+    /**
+     * @return The text preceding the first event of the file, i.e. the header and the init block, once read by any
+     * of the parsing methods.
+     */
+    public String getHeader()
+    {
+        return header;
+    }
+
+    /**
+     * @return The init block of the file, once parsed by any of the parsing methods, or null if the file has none or
+     * it could not be read.
+     */
+    public InitBlock getInit()
+    {
+        return init;
+    }
+
+    /**
+     * @return Derived kinematical quantities of the events parsed, the particles being those selected.
+     */
+    public Kinematics kinematics()
+    {
+        return new Kinematics(getStore());
+    }
+
     public int[] getReagents()
     {
         return Arrays.copyOf(reagents, reagents.length);
@@ -180,28 +725,31 @@ public class MadReader
      * @throws IOException
      */
     public static void extractCrossSections(String csdir, String storedir, String fileName) throws IOException {
-        Pattern form = Pattern.compile("results.html\">\\s*(?<cs>[-.e\\d]+)\\s*<font.*?</font>\\s*(?<dcs>[-.e\\d]+)\\s*</a>", Pattern.DOTALL);
-        // read unweighted events file in as a single string. The following command SHOULD do.
-        Matcher mat = form.matcher(new String(Files.readAllBytes(Paths.get(csdir)), StandardCharsets.UTF_8));
-        // extract from .html file.
-        LinkedList<String> cs = new LinkedList<>();
-        LinkedList<String> dcs = new LinkedList<>();
-        while (mat.find()) {
-            cs.add(mat.group("cs"));
-            dcs.add(mat.group("dcs"));
-        }
-        // store at specified location
-        // create folder in which cross sections will be stored in separate files; automatically skipped if directory exists.
-        new File(storedir).mkdirs();
-        PrintWriter out = new PrintWriter(new File(String.format("%s%s", storedir, fileName)).getAbsoluteFile());
-        out.println("cross section (pb), uncertainty (pb)");
-        // combine entries; need an iterator.
-        Iterator<String> ite = dcs.iterator();
-        for (String c : cs)
-        {
-            out.println(String.format("%s,%s", c, ite.next()));
-        }
-        out.close();
+        // scan the .html file as a stream for the links to the results of each run.
+        CrossSections cs = CrossSections.fromCrossx(csdir);
+        // store at specified location; the folder is created if absent.
+        try (CsvWriter out = new CsvWriter(new File(storedir + fileName), "cross section (pb), uncertainty (pb)"))
+        {
+            for (CrossSections.Run run: cs.getRuns())
+            {
+                out.add(run.sigma).add(run.error);
+                out.endRow();
+            }
+        }
+    }
+
+    /**
+     * Tabulate the cross sections of all runs of a process directory with their beam energies and numbers of events,
+     * read from the event files or results.html of the runs instead of crossx.html.
+     * @param processDir MadGraph process directory, e.g. .../MG5_aMC_v3_5_1/Repository/e-e+_a_tau-tau+_4
+     * @param storedir Directory of the table; created if absent.
+     * @param fileName Should terminate in ".csv".
+     * @throws IOException
+     */
+    public static void extractCrossSections(String processDir, int threads, String storedir, String fileName)
+            throws IOException
+    {
+        CrossSections.scan(processDir, threads).write(storedir + fileName);
     }
 
     public static void main(String[] args) throws IOException
@@ -1,4 +1,345 @@
 package madread;
 
-public class MadWriter {
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.Collections;
+import java.util.List;
+import java.util.zip.GZIPOutputStream;
+
+import madread.utils.Ascii;
+
+/**
+ * Writer of a .lhe file, gzip compressed if its name ends in .gz, e.g. of a skimmed or merged sample to be fed back to
+ * showering. The header and init block of the source are written as given, and events are either re-serialised from
+ * an <code>EventStore</code>, numbers being formatted straight into a large reusable byte buffer, or copied verbatim as
+ * handed out by a reader, the writer itself being an <code>EventHandler</code>.
+ */
+public class MadWriter implements EventHandler, Closeable
+{
+    /**
+     * Default size in bytes of the buffer.
+     */
+    public static final int BUFFER_SIZE = 1 << 20;
+
+    private static final byte[] OPEN = "<event>".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] CLOSE = "</event>\n".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] END = "</LesHouchesEvents>\n".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] WGT = "<wgt".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] WEIGHTS = "<weights>".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Upper bound of the bytes of a particle line.
+     */
+    private static final int LINE_LENGTH = 192;
+
+    private final OutputStream out;
+
+    private final byte[] buf;
+
+    private int pos;
+
+    private long bytesWritten;
+
+    private long events;
+
+    /**
+     * Identifiers of the multi-weights declared in the header.
+     */
+    private final List<String> weightIds;
+
+    /**
+     * Scanner of the header lines of events copied with rescaled weights.
+     */
+    private final LineScanner scanner = new LineScanner(false);
+
+    /**
+     * @param lheFilePath Path (in string) of the file, compressed if it ends in .gz; its directory is created if
+     *                    absent.
+     * @param header Text preceding the first event of the source, i.e. the opening tag, the header and the init block,
+     *               e.g. as given by <code>MadReader.getHeader()</code>.
+     * @throws IOException
+     */
+    public MadWriter(String lheFilePath, String header) throws IOException
+    {
+        this(lheFilePath, header, BUFFER_SIZE);
+    }
+
+    public MadWriter(String lheFilePath, String header, int bufferSize) throws IOException
+    {
+        File file = new File(lheFilePath).getAbsoluteFile();
+        if (file.getParentFile() != null)
+            file.getParentFile().mkdirs();
+        OutputStream os = new FileOutputStream(file);
+        out = lheFilePath.endsWith(".gz") ? new GZIPOutputStream(os, 1 << 16) : os;
+        buf = new byte[Math.max(bufferSize, 1 << 12)];
+        InitBlock init;
+        try
+        {
+            init = InitBlock.parse(header);
+        }
+        catch (RuntimeException e)
+        {
+            // the header is copied as it is regardless.
+            init = null;
+        }
+        weightIds = init == null ? Collections.emptyList() : init.weightIds();
+        put(header.getBytes(StandardCharsets.UTF_8));
+    }
+
+    /**
+     * Copy an event verbatim, given as the text between its opening and closing tags.
+     */
+    @Override
+    public void event(ByteBuffer src, int from, int to) throws IOException
+    {
+        put(OPEN);
+        copy(src, from, to);
+        put(CLOSE);
+        events++;
+    }
+
+    /**
+     * Copy an event verbatim but for its weight XWGTUP and its multi-weights, which are multiplied by the given factor,
+     * e.g. to renormalise events merged from several samples.
+     */
+    public void event(ByteBuffer src, int from, int to, double scale) throws IOException
+    {
+        if (scale == 1)
+        {
+            event(src, from, to);
+            return;
+        }
+        int start = LineScanner.skipSpace(src, from, to);
+        int line = LineScanner.lineEnd(src, start, to);
+        if (!scanner.scanHeader(src, start, line))
+            throw new RuntimeException("Invalid event header after event " + events + "!");
+        put(OPEN);
+        copy(src, from, scanner.start(LineScanner.XWGTUP));
+        ensure(Ascii.MAX_DOUBLE_LENGTH);
+        pos = Ascii.putScientific(buf, pos, scanner.weight() * scale, 7, true);
+        int i = scanner.end(LineScanner.XWGTUP);
+        // rescale the numbers of <wgt> tags and <weights> blocks, copying everything else.
+        for (int k = line; k < to; k++)
+        {
+            if (src.get(k) != '<')
+                continue;
+            boolean wgt = matches(src, k, to, WGT);
+            if (!wgt && !matches(src, k, to, WEIGHTS))
+                continue;
+            int s = wgt ? indexOf(src, (byte) '>', k, to) + 1 : k + WEIGHTS.length;
+            int end = indexOf(src, (byte) '<', s, to);
+            if (s == 0 || end < 0)
+                break;
+            copy(src, i, s);
+            while (true)
+            {
+                int a = LineScanner.skipSpace(src, s, end);
+                if (a == end)
+                    break;
+                int b = a;
+                while (b < end && src.get(b) > ' ')
+                    b++;
+                double w = scanner.parseDouble(src, a, b);
+                if (!scanner.isValid())
+                    throw new RuntimeException("Invalid multi-weight after event " + events + "!");
+                ensure(Ascii.MAX_DOUBLE_LENGTH + 1);
+                buf[pos++] = ' ';
+                pos = Ascii.putScientific(buf, pos, w * scale, 7, true);
+                s = b;
+            }
+            ensure(1);
+            buf[pos++] = ' ';
+            i = end;
+            k = end;
+        }
+        copy(src, i, to);
+        put(CLOSE);
+        events++;
+    }
+
+    /**
+     * Copy a whole event verbatim, from its opening tag to its closing tag, e.g. as given by
+     * <code>EventIndex.bytes</code>.
+     */
+    public void writeRaw(byte[] event) throws IOException
+    {
+        put(event);
+        ensure(1);
+        buf[pos++] = '\n';
+        events++;
+    }
+
+    private void copy(ByteBuffer src, int from, int to) throws IOException
+    {
+        for (int i = from; i < to; )
+        {
+            ensure(1);
+            int n = Math.min(to - i, buf.length - pos);
+            src.get(i, buf, pos, n);
+            pos += n;
+            i += n;
+        }
+    }
+
+    private static boolean matches(ByteBuffer src, int i, int to, byte[] tag)
+    {
+        if (i + tag.length > to)
+            return false;
+        for (int k = 0; k < tag.length; k++)
+            if (src.get(i + k) != tag[k])
+                return false;
+        return true;
+    }
+
+    private static int indexOf(ByteBuffer src, byte b, int from, int to)
+    {
+        for (int i = from; i < to; i++)
+            if (src.get(i) == b)
+                return i;
+        return -1;
+    }
+
+    /**
+     * Write every event of a store.
+     */
+    public void write(EventStore store) throws IOException
+    {
+        for (int e=0; e<store.size(); e++)
+            write(store, e);
+    }
+
+    /**
+     * Write an event of a store: its header line, a line per particle stored, and its multi-weights if any; other tags
+     * within the event, e.g. <code>&lt;mgrwt&gt;</code>, are not stored and so dropped. The mothers are written as
+     * stored, so the event is valid LHE only if every particle was selected.
+     */
+    public void write(EventStore store, int event) throws IOException
+    {
+        int n = store.particles(event);
+        put(OPEN);
+        ensure(96);
+        buf[pos++] = '\n';
+        buf[pos++] = ' ';
+        pos = Ascii.putLong(buf, pos, n);
+        buf[pos++] = ' ';
+        pos = Ascii.putLong(buf, pos, store.idprup(event), 6);
+        buf[pos++] = ' ';
+        pos = Ascii.putScientific(buf, pos, store.weight(event), 7, true);
+        buf[pos++] = ' ';
+        pos = Ascii.putScientific(buf, pos, store.scale(event), 8, false);
+        buf[pos++] = ' ';
+        pos = Ascii.putScientific(buf, pos, store.aqed(event), 8, false);
+        buf[pos++] = ' ';
+        pos = Ascii.putScientific(buf, pos, store.aqcd(event), 8, false);
+        buf[pos++] = '\n';
+        for (int p=0; p<n; p++)
+        {
+            ensure(LINE_LENGTH);
+            pos = Ascii.putLong(buf, pos, store.pdg(event, p), 9);
+            buf[pos++] = ' ';
+            pos = Ascii.putLong(buf, pos, store.status(event, p), 2);
+            buf[pos++] = ' ';
+            pos = Ascii.putLong(buf, pos, store.mother1(event, p), 4);
+            buf[pos++] = ' ';
+            pos = Ascii.putLong(buf, pos, store.mother2(event, p), 4);
+            buf[pos++] = ' ';
+            pos = Ascii.putLong(buf, pos, store.color1(event, p), 4);
+            buf[pos++] = ' ';
+            pos = Ascii.putLong(buf, pos, store.color2(event, p), 4);
+            buf[pos++] = ' ';
+            pos = Ascii.putScientific(buf, pos, store.px(event, p), 10, true);
+            buf[pos++] = ' ';
+            pos = Ascii.putScientific(buf, pos, store.py(event, p), 10, true);
+            buf[pos++] = ' ';
+            pos = Ascii.putScientific(buf, pos, store.pz(event, p), 10, true);
+            buf[pos++] = ' ';
+            pos = Ascii.putScientific(buf, pos, store.e(event, p), 10, false);
+            buf[pos++] = ' ';
+            pos = Ascii.putScientific(buf, pos, store.mass(event, p), 10, false);
+            buf[pos++] = ' ';
+            pos = Ascii.putScientific(buf, pos, store.lifetime(event, p), 4, false);
+            buf[pos++] = ' ';
+            pos = Ascii.putScientific(buf, pos, store.helicity(event, p), 4, false);
+            buf[pos++] = '\n';
+        }
+        int w = store.weights(event);
+        if (w != 0)
+        {
+            put("<rwgt>\n".getBytes(StandardCharsets.US_ASCII));
+            for (int i=0; i<w; i++)
+            {
+                String id = i < weightIds.size() ? weightIds.get(i) : String.valueOf(i + 1);
+                ensure(48 + id.length());
+                pos = Ascii.putAscii(buf, pos, "<wgt id='");
+                pos = Ascii.putAscii(buf, pos, id);
+                pos = Ascii.putAscii(buf, pos, "'> ");
+                pos = Ascii.putScientific(buf, pos, store.weight(event, i), 7, true);
+                pos = Ascii.putAscii(buf, pos, " </wgt>\n");
+            }
+            put("</rwgt>\n".getBytes(StandardCharsets.US_ASCII));
+        }
+        put(CLOSE);
+        events++;
+    }
+
+    private void put(byte[] b) throws IOException
+    {
+        for (int i = 0; i < b.length; )
+        {
+            ensure(1);
+            int n = Math.min(b.length - i, buf.length - pos);
+            System.arraycopy(b, i, buf, pos, n);
+            pos += n;
+            i += n;
+        }
+    }
+
+    private void ensure(int n) throws IOException
+    {
+        if (buf.length - pos < n)
+            flush();
+    }
+
+    public void flush() throws IOException
+    {
+        out.write(buf, 0, pos);
+        bytesWritten += pos;
+        pos = 0;
+    }
+
+    /**
+     * @return Number of events written.
+     */
+    public long events()
+    {
+        return events;
+    }
+
+    /**
+     * @return Number of bytes written so far before compression, including those still buffered.
+     */
+    public long bytesWritten()
+    {
+        return bytesWritten + pos;
+    }
+
+    /**
+     * Terminate the file with the closing tag of the document and close it.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        put(END);
+        flush();
+        out.close();
+    }
 }
@@ -0,0 +1,198 @@
+package madread;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reader of an uncompressed .lhe file through memory mapping. The file is mapped window by window and the events are
+ * handed to the <code>EventHandler</code> as ranges of the mapped region itself, so no byte is copied or decoded
+ * before the handler looks at it. Windows are at most 1 GiB, which lifts the 2 GiB limit of a single mapping; an event
+ * straddling the end of a window is read again from the start of the next.
+ */
+public class MappedLheReader implements Closeable
+{
+    /**
+     * Default size in bytes of the mapped windows.
+     */
+    public static final int WINDOW_SIZE = 1 << 30;
+
+    private static final byte[] OPEN = "<event".getBytes(StandardCharsets.US_ASCII);
+
+    private static final byte[] CLOSE = "</event>".getBytes(StandardCharsets.US_ASCII);
+
+    private final FileChannel ch;
+
+    private final boolean owner;
+
+    private final long from;
+
+    private final long to;
+
+    private final int window;
+
+    private String header;
+
+    private long events;
+
+    /**
+     * Read the whole file at the given path.
+     * @param lheFilePath Path (in string) to the .lhe file.
+     * @throws IOException
+     */
+    public MappedLheReader(String lheFilePath) throws IOException
+    {
+        this(FileChannel.open(Paths.get(lheFilePath), StandardOpenOption.READ), true);
+    }
+
+    private MappedLheReader(FileChannel ch, boolean owner) throws IOException
+    {
+        this(ch, owner, 0, ch.size(), WINDOW_SIZE);
+    }
+
+    /**
+     * Read the events whose opening tags lie within a range of a channel, which remains open after reading.
+     * @param ch Channel of the .lhe file.
+     * @param from Offset of the range, at an opening event tag or before the first event.
+     * @param to Offset past the range.
+     * @param window Size in bytes of the mapped windows, which must exceed the size of any event.
+     */
+    public MappedLheReader(FileChannel ch, long from, long to, int window)
+    {
+        this(ch, false, from, to, window);
+    }
+
+    private MappedLheReader(FileChannel ch, boolean owner, long from, long to, int window)
+    {
+        this.ch = ch;
+        this.owner = owner;
+        this.from = from;
+        this.to = to;
+        this.window = window;
+    }
+
+    /**
+     * Read the range to its end, handing every event to the handler in order of appearance.
+     * @param handler Receiver of the events.
+     * @return The number of events read.
+     * @throws IOException
+     */
+    public long read(EventHandler handler) throws IOException
+    {
+        long pos = from;
+        while (pos < to)
+        {
+            int n = (int) Math.min(window, to - pos);
+            boolean last = pos + n == to;
+            MappedByteBuffer buf = ch.map(FileChannel.MapMode.READ_ONLY, pos, n);
+            int i = 0;
+            // where reading resumes in the next window.
+            int resume;
+            while (true)
+            {
+                int open = indexOfOpen(buf, i, n);
+                if (open < 0)
+                {
+                    // leave a tag cut by the end of the window to the next.
+                    resume = Math.max(i, n - OPEN.length);
+                    break;
+                }
+                if (header == null && pos == 0)
+                    header = text(buf, 0, open);
+                int start = indexOf(buf, (byte) '>', open + OPEN.length, n) + 1;
+                int end = start == 0 ? -1 : indexOfClose(buf, start, n);
+                if (end < 0)
+                {
+                    if (last)
+                        throw new RuntimeException("Unterminated event after event " + events + "!");
+                    if (open == 0)
+                        throw new RuntimeException("Event larger than the mapped window of " + window + " bytes!");
+                    resume = open;
+                    break;
+                }
+                handler.event(buf, start, end);
+                events++;
+                i = end + CLOSE.length;
+            }
+            if (last)
+                break;
+            pos += resume;
+        }
+        return events;
+    }
+
+    private static int indexOfOpen(MappedByteBuffer buf, int from, int to)
+    {
+        for (int i = from; i + OPEN.length < to; i++)
+        {
+            if (buf.get(i) != '<')
+                continue;
+            int k = 1;
+            while (k < OPEN.length && buf.get(i + k) == OPEN[k])
+                k++;
+            if (k < OPEN.length)
+                continue;
+            byte b = buf.get(i + k);
+            if (b == '>' || b == ' ' || b == '\t' || b == '\n' || b == '\r')
+                return i;
+        }
+        return -1;
+    }
+
+    private static int indexOfClose(MappedByteBuffer buf, int from, int to)
+    {
+        for (int i = from; i + CLOSE.length <= to; i++)
+        {
+            if (buf.get(i) != '<')
+                continue;
+            int k = 1;
+            while (k < CLOSE.length && buf.get(i + k) == CLOSE[k])
+                k++;
+            if (k == CLOSE.length)
+                return i;
+        }
+        return -1;
+    }
+
+    private static int indexOf(MappedByteBuffer buf, byte b, int from, int to)
+    {
+        for (int i = from; i < to; i++)
+            if (buf.get(i) == b)
+                return i;
+        return -1;
+    }
+
+    private static String text(MappedByteBuffer buf, int from, int to)
+    {
+        byte[] b = new byte[to - from];
+        buf.get(from, b);
+        return new String(b, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * @return The text preceding the first event, if the range started at the beginning of the file.
+     */
+    public String header()
+    {
+        return header;
+    }
+
+    /**
+     * @return Number of events handed out so far.
+     */
+    public long events()
+    {
+        return events;
+    }
+
+    @Override
+    public void close() throws IOException
+    {
+        if (owner)
+            ch.close();
+    }
+}
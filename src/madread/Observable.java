@@ -0,0 +1,76 @@
+package madread;
+
+import madread.utils.Utils;
+
+/**
+ * Quantity computed from an event as soon as it is parsed, e.g. to be histogrammed without storing the event.
+ */
+@FunctionalInterface
+public interface Observable
+{
+    /**
+     * @param store Store holding the event.
+     * @param event Index of the event in the store.
+     * @return The value of the quantity for the event.
+     */
+    double value(EventStore store, int event);
+
+    /**
+     * @return Transverse momentum in GeV of the particle at the given position of the event.
+     */
+    static Observable pt(int particle)
+    {
+        return (s, e) -> Utils.pt(s.px(e, particle), s.py(e, particle));
+    }
+
+    /**
+     * @return Pseudorapidity of the particle at the given position of the event.
+     */
+    static Observable eta(int particle)
+    {
+        return (s, e) -> Utils.eta(s.px(e, particle), s.py(e, particle), s.pz(e, particle));
+    }
+
+    /**
+     * @return Rapidity of the particle at the given position of the event.
+     */
+    static Observable rapidity(int particle)
+    {
+        return (s, e) -> Utils.rapidity(s.e(e, particle), s.pz(e, particle));
+    }
+
+    /**
+     * @return Energy in GeV of the particle at the given position of the event.
+     */
+    static Observable energy(int particle)
+    {
+        return (s, e) -> s.e(e, particle);
+    }
+
+    /**
+     * @return Invariant mass in GeV of the system of the particles at the given positions of the event.
+     */
+    static Observable mass(int... particles)
+    {
+        return (s, e) -> {
+            double en = 0, px = 0, py = 0, pz = 0;
+            for (int p: particles)
+            {
+                en += s.e(e, p);
+                px += s.px(e, p);
+                py += s.py(e, p);
+                pz += s.pz(e, p);
+            }
+            return Utils.mass(en, px, py, pz);
+        };
+    }
+
+    /**
+     * @return Distance in the pseudorapidity-azimuth plane between the particles at the given positions of the event.
+     */
+    static Observable deltaR(int a, int b)
+    {
+        return (s, e) -> Utils.deltaR(Utils.eta(s.px(e, a), s.py(e, a), s.pz(e, a)), Utils.phi(s.px(e, a), s.py(e, a)),
+                Utils.eta(s.px(e, b), s.py(e, b), s.pz(e, b)), Utils.phi(s.px(e, b), s.py(e, b)));
+    }
+}
@@ -0,0 +1,263 @@
+package madread;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Parser of a .lhe file on several cores. The file is split into byte ranges aligned on <code>&lt;event&gt;</code>
+ * tags, the ranges are mapped and parsed concurrently on a fork-join pool, each into its own <code>EventStore</code>,
+ * and the stores are merged in the original order of the events. Events may instead be summarised, each range being
+ * filled into its own partial <code>Accumulator</code>.
+ */
+public class ParallelParser
+{
+    private static final byte[] OPEN = "<event".getBytes(StandardCharsets.US_ASCII);
+
+    /**
+     * Number of ranges per thread, so that threads finishing early pick up the remaining work.
+     */
+    private static final int CHUNKS_PER_THREAD = 4;
+
+    private final int parallelism;
+
+    private final boolean strict;
+
+    private final EventFilter filter;
+
+    private final ParticleSelector selector;
+
+    /**
+     * Text preceding the first event of the last file parsed.
+     */
+    private String header;
+
+    private long rejected;
+
+    private long unmatched;
+
+    /**
+     * @param parallelism Number of threads parsing concurrently.
+     * @param strict Whether particle lines are validated as strictly as by the particle-line regex.
+     * @param filter Selection of the events stored.
+     * @param selector Selection of the particles stored.
+     */
+    public ParallelParser(int parallelism, boolean strict, EventFilter filter, ParticleSelector selector)
+    {
+        if (parallelism < 1)
+            throw new RuntimeException("Parallelism must be positive!");
+        this.parallelism = parallelism;
+        this.strict = strict;
+        this.filter = filter;
+        this.selector = selector;
+    }
+
+    /**
+     * Parse all events of the file. A compressed file cannot be split and is parsed as a single stream, inflated on
+     * its own thread.
+     * @param lheFilePath Path (in string) to the .lhe file.
+     * @return The events in the order they appear in the file.
+     * @throws IOException
+     */
+    public EventStore parse(String lheFilePath) throws IOException
+    {
+        EventStore store = new EventStore(selector.size());
+        // merge in order of the ranges.
+        for (EventParser parser: parseRanges(lheFilePath, null))
+            store.append(parser.getStore());
+        return store;
+    }
+
+    /**
+     * Fill all accepted events of the file into an accumulator, each range into its own partial accumulator, without
+     * keeping any event.
+     * @param lheFilePath Path (in string) to the .lhe file.
+     * @param accumulator Accumulator into which the partial accumulators are merged.
+     * @return The accumulator.
+     * @throws IOException
+     */
+    public Accumulator summarise(String lheFilePath, Accumulator accumulator) throws IOException
+    {
+        for (EventParser parser: parseRanges(lheFilePath, accumulator))
+            accumulator.merge(parser.getAccumulator());
+        return accumulator;
+    }
+
+    /**
+     * Parse all ranges of the file, the events being filled into partial copies of the accumulator if one is given.
+     * @return The parser of each range in order of the ranges.
+     */
+    private List<EventParser> parseRanges(String lheFilePath, Accumulator accumulator) throws IOException
+    {
+        rejected = 0;
+        unmatched = 0;
+        header = null;
+        List<EventParser> parsers = new ArrayList<>();
+        if (LheStream.isCompressed(lheFilePath))
+        {
+            EventParser parser = newParser(accumulator);
+            try (LheStream in = LheStream.open(lheFilePath))
+            {
+                in.read(parser);
+                header = in.header();
+            }
+            count(parser);
+            parsers.add(parser);
+            return parsers;
+        }
+        try (FileChannel ch = FileChannel.open(Paths.get(lheFilePath), StandardOpenOption.READ))
+        {
+            long[] bounds = split(ch, parallelism * CHUNKS_PER_THREAD);
+            ForkJoinPool pool = new ForkJoinPool(parallelism);
+            try
+            {
+                List<ForkJoinTask<EventParser>> tasks = new ArrayList<>();
+                for (int i=0; i<bounds.length-1; i++)
+                {
+                    long from = bounds[i], to = bounds[i+1];
+                    tasks.add(pool.submit(() -> parseRange(ch, from, to, accumulator)));
+                }
+                for (ForkJoinTask<EventParser> task: tasks)
+                {
+                    EventParser parser = task.join();
+                    count(parser);
+                    parsers.add(parser);
+                }
+                return parsers;
+            }
+            catch (UncheckedIOException e)
+            {
+                throw e.getCause();
+            }
+            finally
+            {
+                pool.shutdown();
+            }
+        }
+    }
+
+    /**
+     * Parse the events whose opening tags lie within the given range of the file.
+     */
+    private EventParser parseRange(FileChannel ch, long from, long to, Accumulator accumulator)
+    {
+        EventParser parser = newParser(accumulator);
+        try
+        {
+            MappedLheReader in = new MappedLheReader(ch, from, to, MappedLheReader.WINDOW_SIZE);
+            in.read(parser);
+            // read by the calling thread after joining the task.
+            if (from == 0)
+                header = in.header();
+        }
+        catch (IOException e)
+        {
+            throw new UncheckedIOException(e);
+        }
+        return parser;
+    }
+
+    private EventParser newParser(Accumulator accumulator)
+    {
+        EventStore store = new EventStore(selector.size(), accumulator == null ? 1024 : 1, false);
+        EventParser parser = new EventParser(store, strict, filter, selector);
+        return accumulator == null ? parser : parser.accumulate(accumulator.partial());
+    }
+
+    private void count(EventParser parser)
+    {
+        rejected += parser.rejected();
+        unmatched += parser.unmatched();
+    }
+
+    /**
+     * @return The text preceding the first event of the file last parsed, i.e. the header and the init block.
+     */
+    public String header()
+    {
+        return header;
+    }
+
+    /**
+     * @return Number of events rejected by the filter in the last parse.
+     */
+    public long rejected()
+    {
+        return rejected;
+    }
+
+    /**
+     * @return Number of events lacking some of the selected particles in the last parse.
+     */
+    public long unmatched()
+    {
+        return unmatched;
+    }
+
+    /**
+     * Split the file into at most the given number of ranges, each but the first starting exactly at an opening
+     * event tag.
+     * @return Boundaries of the ranges, from 0 to the size of the file.
+     */
+    static long[] split(FileChannel ch, int n) throws IOException
+    {
+        long size = ch.size();
+        List<Long> bounds = new ArrayList<>();
+        bounds.add(0L);
+        for (int i=1; i<n; i++)
+        {
+            long b = nextEvent(ch, Math.max(size / n * i, bounds.get(bounds.size() - 1) + 1), size);
+            if (b >= size)
+                break;
+            if (b > bounds.get(bounds.size() - 1))
+                bounds.add(b);
+        }
+        bounds.add(size);
+        long[] out = new long[bounds.size()];
+        for (int i=0; i<out.length; i++)
+            out[i] = bounds.get(i);
+        return out;
+    }
+
+    /**
+     * @return Offset of the first opening event tag at or after the given offset, or the size of the file if none.
+     */
+    static long nextEvent(FileChannel ch, long from, long size) throws IOException
+    {
+        ByteBuffer buf = ByteBuffer.allocate(1 << 16);
+        long pos = from;
+        while (pos < size)
+        {
+            buf.clear();
+            int n = ch.read(buf, pos);
+            if (n <= 0)
+                break;
+            // leave room for a tag straddling the end of the window.
+            int scan = pos + n >= size ? n : n - OPEN.length;
+            for (int i=0; i<scan; i++)
+                if (isOpenTag(buf, i, n))
+                    return pos + i;
+            pos += Math.max(scan, 1);
+        }
+        return size;
+    }
+
+    private static boolean isOpenTag(ByteBuffer buf, int i, int n)
+    {
+        if (i + OPEN.length >= n)
+            return false;
+        for (int k=0; k<OPEN.length; k++)
+            if (buf.get(i + k) != OPEN[k])
+                return false;
+        byte b = buf.get(i + OPEN.length);
+        return b == '>' || b == ' ' || b == '\t' || b == '\n' || b == '\r';
+    }
+}
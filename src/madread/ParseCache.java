@@ -0,0 +1,255 @@
+package madread;
+
+import static madread.Print.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.DirectoryNotEmptyException;
+import java.nio.file.FileAlreadyExistsException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.FileTime;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Stream;
+
+/**
+ * On-disk cache of parsed events, so that a file analysed again is mapped back instead of parsed. An entry is keyed by
+ * the identity of the file, i.e. its size, its modification time and a hash of its first and last megabyte, and by the
+ * selection of particles, and holds the columns of the events as written by <code>EventStore.save</code> along with
+ * the header of the file. Entries are directories named by their key under the cache directory; a hit marks its entry
+ * as used, and the least recently used entries are deleted whenever the cache exceeds its budget.
+ */
+public class ParseCache
+{
+    /**
+     * Version of the layout of the entries, part of every key.
+     */
+    private static final int FORMAT = 1;
+
+    /**
+     * Number of bytes hashed at each end of the file.
+     */
+    private static final int SAMPLE = 1 << 20;
+
+    private static final String HEADER = "header.lhe";
+
+    /**
+     * Cached events of a file.
+     */
+    public static final class Entry
+    {
+        /**
+         * Events, their particle columns mapped from the cache.
+         */
+        public final EventStore store;
+
+        /**
+         * Text preceding the first event of the file.
+         */
+        public final String header;
+
+        Entry(EventStore store, String header)
+        {
+            this.store = store;
+            this.header = header;
+        }
+    }
+
+    private final Path dir;
+
+    private final long budget;
+
+    /**
+     * @param dir Directory of the cache, created if absent.
+     * @param budget Number of bytes the entries may take together on disk.
+     * @throws IOException
+     */
+    public ParseCache(String dir, long budget) throws IOException
+    {
+        this.dir = Paths.get(dir);
+        this.budget = budget;
+        Files.createDirectories(this.dir);
+    }
+
+    /**
+     * Key of the events of a file parsed with a selection of particles.
+     * @param lheFilePath Path (in string) to the .lhe file, compressed or not.
+     * @param selector Selection of the particles stored.
+     * @return The key, in hexadecimal.
+     * @throws IOException
+     */
+    public static String key(String lheFilePath, ParticleSelector selector) throws IOException
+    {
+        Path path = Paths.get(lheFilePath);
+        MessageDigest sha;
+        try
+        {
+            sha = MessageDigest.getInstance("SHA-256");
+        }
+        catch (NoSuchAlgorithmException e)
+        {
+            throw new RuntimeException("No SHA-256 digest!", e);
+        }
+        long size = Files.size(path);
+        int[] pdg = selector.getPdg(), status = selector.getStatus();
+        ByteBuffer id = ByteBuffer.allocate(32 + 8 * pdg.length).order(ByteOrder.LITTLE_ENDIAN);
+        id.putInt(FORMAT).putLong(size).putLong(Files.getLastModifiedTime(path).toMillis());
+        id.put((byte) (selector.isAll() ? 1 : 0)).putInt(pdg.length);
+        for (int i=0; i<pdg.length; i++)
+            id.putInt(pdg[i]).putInt(status[i]);
+        sha.update(id.flip());
+        try (FileChannel ch = FileChannel.open(path, StandardOpenOption.READ))
+        {
+            ByteBuffer buf = ByteBuffer.allocate((int) Math.min(SAMPLE, size));
+            for (long from: new long[]{0, Math.max(0, size - SAMPLE)})
+            {
+                buf.clear();
+                while (buf.hasRemaining() && ch.read(buf, from + buf.position()) > 0)
+                    ;
+                sha.update(buf.flip());
+            }
+        }
+        StringBuilder hex = new StringBuilder();
+        for (byte b: sha.digest())
+            hex.append(String.format("%02x", b));
+        return hex.toString();
+    }
+
+    /**
+     * Map back the events of an entry and mark it as used.
+     * @return The entry, or null if there is none of the key.
+     * @throws IOException
+     */
+    public Entry get(String key) throws IOException
+    {
+        Path entry = dir.resolve(key);
+        if (!Files.isRegularFile(entry.resolve(HEADER)))
+            return null;
+        Files.setLastModifiedTime(entry, FileTime.fromMillis(System.currentTimeMillis()));
+        String header = new String(Files.readAllBytes(entry.resolve(HEADER)), StandardCharsets.UTF_8);
+        return new Entry(EventStore.load(entry.toString() + File.separator), header);
+    }
+
+    /**
+     * Store the events of a file, then evict the least recently used entries beyond the budget, the new one aside. The
+     * entry is written aside and moved into place, so that an interrupted write leaves no entry.
+     * @param key Key of the file and selection, as given by <code>key</code>.
+     * @param store Events parsed.
+     * @param header Text preceding the first event of the file.
+     * @param pdg PDG codes of the selected particles.
+     * @throws IOException
+     */
+    public void put(String key, EventStore store, String header, int[] pdg) throws IOException
+    {
+        Path entry = dir.resolve(key);
+        Path tmp = dir.resolve(key + ".tmp" + Thread.currentThread().getId());
+        deleteTree(tmp);
+        Files.createDirectories(tmp);
+        store.save(tmp.toString() + File.separator, pdg);
+        // the header last, as it marks the entry complete.
+        Files.write(tmp.resolve(HEADER), (header == null ? "" : header).getBytes(StandardCharsets.UTF_8));
+        try
+        {
+            Files.move(tmp, entry, StandardCopyOption.ATOMIC_MOVE);
+        }
+        catch (FileAlreadyExistsException | DirectoryNotEmptyException e)
+        {
+            // stored meanwhile by another reader.
+            deleteTree(tmp);
+        }
+        evict(key);
+    }
+
+    /**
+     * @return Number of bytes taken by the entries.
+     * @throws IOException
+     */
+    public long size() throws IOException
+    {
+        long size = 0;
+        for (Path entry: entries())
+            size += size(entry);
+        return size;
+    }
+
+    /**
+     * Delete the least recently used entries until the cache fits its budget, keeping the given one.
+     */
+    private void evict(String keep) throws IOException
+    {
+        List<Path> entries = entries();
+        Map<Path, FileTime> used = new HashMap<>();
+        Map<Path, Long> sizes = new HashMap<>();
+        long total = 0;
+        for (Path entry: entries)
+        {
+            used.put(entry, Files.getLastModifiedTime(entry));
+            sizes.put(entry, size(entry));
+            total += sizes.get(entry);
+        }
+        entries.sort(Comparator.comparing(used::get));
+        for (Path entry: entries)
+        {
+            if (total <= budget)
+                break;
+            if (entry.getFileName().toString().equals(keep))
+                continue;
+            try
+            {
+                deleteTree(entry);
+                total -= sizes.get(entry);
+                println(String.format("Evicted %s from the parse cache.", entry.getFileName()));
+            }
+            catch (IOException e)
+            {
+                // an entry still mapped cannot be deleted on some systems; it goes on a later eviction.
+            }
+        }
+    }
+
+    private List<Path> entries() throws IOException
+    {
+        List<Path> entries = new ArrayList<>();
+        try (Stream<Path> list = Files.list(dir))
+        {
+            list.filter(p -> Files.isDirectory(p) && !p.getFileName().toString().contains(".tmp"))
+                    .forEach(entries::add);
+        }
+        return entries;
+    }
+
+    private static long size(Path entry) throws IOException
+    {
+        try (Stream<Path> files = Files.walk(entry))
+        {
+            return files.filter(Files::isRegularFile).mapToLong(p -> p.toFile().length()).sum();
+        }
+    }
+
+    private static void deleteTree(Path root) throws IOException
+    {
+        if (!Files.exists(root))
+            return;
+        List<Path> paths = new ArrayList<>();
+        try (Stream<Path> walk = Files.walk(root))
+        {
+            walk.forEach(paths::add);
+        }
+        // children before their directory.
+        for (int i=paths.size()-1; i>=0; i--)
+            Files.delete(paths.get(i));
+    }
+}
@@ -0,0 +1,257 @@
+package madread;
+
+import static madread.Print.*;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Locale;
+
+/**
+ * Counters and timers of a single pass over a .lhe file: bytes read, events read, accepted, rejected by the filter
+ * and lacking the selected particles, and the time spent reading, parsing and writing. A handler is timed by wrapping
+ * it with <code>time</code>: the time it takes is parsing, the time between its calls, spent by the reader fetching
+ * the next event, is reading, and writers report their own time through <code>write</code>, which is then taken off
+ * the parsing. Progress is printed at a fixed interval while the events are handed out, with an estimate of the time
+ * left when the size of the input is known, and the pass is summarised as a single line of JSON.
+ */
+public class ParseStats
+{
+    /**
+     * Number of events between two checks of the clock for printing progress.
+     */
+    private static final int PROGRESS_STRIDE = 1 << 12;
+
+    private final String source;
+
+    private final String mode;
+
+    /**
+     * Number of bytes to be read, or -1 if unknown, e.g. of a compressed file.
+     */
+    private final long expectedBytes;
+
+    private final long progressNanos;
+
+    private final long start = System.nanoTime();
+
+    private long lastProgress = start;
+
+    /**
+     * End of the last call of the timed handler, from which reading the next event is timed.
+     */
+    private long lastReturn = start;
+
+    private long bytes, events, rejected, unmatched;
+
+    private long ioNanos, parseNanos, writeNanos, wallNanos = -1;
+
+    private int threads = 1;
+
+    /**
+     * @param source Path (in string) of the file read.
+     * @param mode Name of the pass, e.g. parse or parseStreaming.
+     * @param expectedBytes Number of bytes to be read, or -1 if unknown.
+     * @param progressMillis Interval between progress lines, none being printed if 0.
+     */
+    public ParseStats(String source, String mode, long expectedBytes, long progressMillis)
+    {
+        this.source = source;
+        this.mode = mode;
+        this.expectedBytes = expectedBytes;
+        this.progressNanos = progressMillis * 1000000;
+    }
+
+    /**
+     * Time a handler: every event handed to it is counted along with its bytes, and the time between its calls is
+     * taken as reading.
+     * @return The timed handler.
+     */
+    public EventHandler time(EventHandler handler)
+    {
+        lastReturn = System.nanoTime();
+        return (ByteBuffer buf, int from, int to) -> {
+            long t0 = System.nanoTime();
+            ioNanos += t0 - lastReturn;
+            long written = writeNanos;
+            handler.event(buf, from, to);
+            long t1 = System.nanoTime();
+            parseNanos += t1 - t0 - (writeNanos - written);
+            lastReturn = t1;
+            bytes += to - from;
+            if (++events % PROGRESS_STRIDE == 0 && progressNanos != 0 && t1 - lastProgress >= progressNanos)
+            {
+                lastProgress = t1;
+                progress(t1);
+            }
+        };
+    }
+
+    /**
+     * Account for time spent writing.
+     * @param nanos Time in nanoseconds.
+     */
+    public void write(long nanos)
+    {
+        writeNanos += nanos;
+    }
+
+    /**
+     * Time a write, e.g. <code>stats.write(() -> out.endRow())</code>.
+     */
+    public void write(Write write) throws IOException
+    {
+        long t0 = System.nanoTime();
+        write.run();
+        writeNanos += System.nanoTime() - t0;
+    }
+
+    /**
+     * Writing to be timed.
+     */
+    @FunctionalInterface
+    public interface Write
+    {
+        void run() throws IOException;
+    }
+
+    private void progress(long now)
+    {
+        double seconds = (now - start) / 1e9;
+        double rate = bytes / 1e6 / seconds;
+        if (expectedBytes > 0)
+        {
+            double done = Math.min(1, (double) bytes / expectedBytes);
+            println(String.format("%d events, %.1f MB (%.1f%%) in %.1f s, %.1f MB/s, %.0f s left.", events, bytes / 1e6,
+                    100 * done, seconds, rate, done == 0 ? Double.NaN : seconds * (1 - done) / done));
+        }
+        else
+            println(String.format("%d events, %.1f MB in %.1f s, %.1f MB/s.", events, bytes / 1e6, seconds, rate));
+    }
+
+    /**
+     * Close the pass.
+     * @param bytesRead Number of bytes read in total, e.g. including the header, or -1 to keep those of the events.
+     * @param rejected Number of events rejected by the filter.
+     * @param unmatched Number of events lacking the selected particles.
+     * @return These statistics.
+     */
+    public ParseStats finish(long bytesRead, long rejected, long unmatched)
+    {
+        wallNanos = System.nanoTime() - start;
+        if (bytesRead >= 0)
+            bytes = bytesRead;
+        this.rejected = rejected;
+        this.unmatched = unmatched;
+        return this;
+    }
+
+    /**
+     * Record the outcome of a pass whose events were not handed out through <code>time</code>, e.g. of parsing on
+     * several threads, whose time is then all parsing.
+     * @return These statistics.
+     */
+    ParseStats finish(long bytesRead, long events, long rejected, long unmatched, int threads)
+    {
+        this.events = events;
+        this.threads = threads;
+        finish(bytesRead, rejected, unmatched);
+        parseNanos = wallNanos - writeNanos;
+        return this;
+    }
+
+    /**
+     * @return Number of bytes read.
+     */
+    public long bytes()
+    {
+        return bytes;
+    }
+
+    /**
+     * @return Number of events read.
+     */
+    public long events()
+    {
+        return events;
+    }
+
+    /**
+     * @return Number of events accepted, i.e. neither rejected nor lacking the selected particles.
+     */
+    public long accepted()
+    {
+        return events - rejected - unmatched;
+    }
+
+    public long rejected()
+    {
+        return rejected;
+    }
+
+    public long unmatched()
+    {
+        return unmatched;
+    }
+
+    /**
+     * @return Time in nanoseconds spent reading, i.e. fetching, inflating and isolating events.
+     */
+    public long ioNanos()
+    {
+        return ioNanos;
+    }
+
+    /**
+     * @return Time in nanoseconds spent parsing events.
+     */
+    public long parseNanos()
+    {
+        return parseNanos;
+    }
+
+    /**
+     * @return Time in nanoseconds spent writing outputs.
+     */
+    public long writeNanos()
+    {
+        return writeNanos;
+    }
+
+    /**
+     * @return Time in nanoseconds from start to finish, or -1 if not finished.
+     */
+    public long wallNanos()
+    {
+        return wallNanos;
+    }
+
+    /**
+     * @return The statistics as a single line of JSON, rates being null when no time has passed.
+     */
+    public String toJson()
+    {
+        double seconds = wallNanos / 1e9;
+        return String.format(Locale.ROOT, "{\"source\":\"%s\",\"mode\":\"%s\",\"threads\":%d,\"bytes\":%d,"
+                        + "\"events\":%d,\"accepted\":%d,\"rejected\":%d,\"unmatched\":%d,\"io_ns\":%d,\"parse_ns\":%d,"
+                        + "\"write_ns\":%d,\"wall_ns\":%d,\"events_per_s\":%s,\"mb_per_s\":%s}",
+                source.replace("\\", "\\\\").replace("\"", "\\\""), mode, threads, bytes, events, accepted(),
+                rejected, unmatched, ioNanos, parseNanos, writeNanos, wallNanos, rate("%.1f", events / seconds),
+                rate("%.3f", bytes / 1e6 / seconds));
+    }
+
+    /**
+     * @return A rate in JSON: the number, or null if not finite.
+     */
+    private static String rate(String format, double rate)
+    {
+        return Double.isFinite(rate) ? String.format(Locale.ROOT, format, rate) : "null";
+    }
+
+    @Override
+    public String toString()
+    {
+        return String.format("%d events (%d accepted), %.1f MB in %.3f s: %.3f s reading, %.3f s parsing, "
+                + "%.3f s writing.", events, accepted(), bytes / 1e6, wallNanos / 1e9, ioNanos / 1e9,
+                parseNanos / 1e9, writeNanos / 1e9);
+    }
+}
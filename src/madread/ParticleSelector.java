@@ -0,0 +1,157 @@
+package madread;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Selection of the particles of an event by PDG code and status rather than by position. Each selected particle
+ * fills a slot, e.g. the reagents and products of a process in the order given, and the slots an event may fill are
+ * found through a precomputed lookup table, so that intermediate resonances, decay products and extra jets are skipped
+ * at the cost of an array access per line.
+ */
+public class ParticleSelector
+{
+    /**
+     * Selection of every particle of every event in order of appearance, events varying in length.
+     */
+    public static final ParticleSelector ALL = new ParticleSelector(new int[0], new int[0]);
+
+    /**
+     * Status of incoming particles.
+     */
+    public static final int INCOMING = -1;
+
+    /**
+     * Status of outgoing final state particles.
+     */
+    public static final int OUTGOING = 1;
+
+    /**
+     * PDG codes below this in magnitude, which includes all the elementary particles, are looked up in a table.
+     */
+    private static final int TABLE_PDG = 1 << 10;
+
+    /**
+     * Statuses from this up to <code>MAX_STATUS</code> are looked up in a table.
+     */
+    private static final int MIN_STATUS = -2;
+
+    private static final int MAX_STATUS = 3;
+
+    private final int[] pdg;
+
+    private final int[] status;
+
+    /**
+     * Bit mask of the slots each (PDG code, status) may fill.
+     */
+    private final long[] table;
+
+    private final Map<Long, Long> others = new HashMap<>();
+
+    /**
+     * Bit mask of all slots.
+     */
+    private final long complete;
+
+    /**
+     * @param pdg PDG code of each slot.
+     * @param status Status of each slot, e.g. <code>INCOMING</code> or <code>OUTGOING</code>.
+     */
+    public ParticleSelector(int[] pdg, int[] status)
+    {
+        if (pdg.length != status.length)
+            throw new RuntimeException("Lengths of PDG code and status arrays not equal!");
+        if (pdg.length > 64)
+            throw new RuntimeException("At most 64 particles may be selected!");
+        this.pdg = Arrays.copyOf(pdg, pdg.length);
+        this.status = Arrays.copyOf(status, status.length);
+        table = new long[2 * TABLE_PDG * (MAX_STATUS - MIN_STATUS + 1)];
+        for (int i = 0; i < pdg.length; i++)
+        {
+            int k = index(pdg[i], status[i]);
+            if (k >= 0)
+                table[k] |= 1L << i;
+            else
+                others.merge(key(pdg[i], status[i]), 1L << i, (a, b) -> a | b);
+        }
+        complete = pdg.length == 64 ? -1L : (1L << pdg.length) - 1;
+    }
+
+    /**
+     * @return Selection of the given reagents, incoming, and products, outgoing, in this order.
+     */
+    public static ParticleSelector of(int[] reagents, int[] products)
+    {
+        int n = reagents.length + products.length;
+        int[] pdg = new int[n];
+        int[] status = new int[n];
+        for (int i = 0; i < n; i++)
+        {
+            boolean in = i < reagents.length;
+            pdg[i] = in ? reagents[i] : products[i - reagents.length];
+            status[i] = in ? INCOMING : OUTGOING;
+        }
+        return new ParticleSelector(pdg, status);
+    }
+
+    /**
+     * @return Number of slots, 0 if every particle is selected.
+     */
+    public int size()
+    {
+        return pdg.length;
+    }
+
+    /**
+     * @return Whether every particle is selected.
+     */
+    public boolean isAll()
+    {
+        return pdg.length == 0;
+    }
+
+    /**
+     * Find the first free slot a particle may fill.
+     * @param taken Bit mask of the slots already filled in the event.
+     * @return The slot, or -1 if the particle is not selected.
+     */
+    public int slot(int pdg, int status, long taken)
+    {
+        int k = index(pdg, status);
+        long mask = k >= 0 ? table[k] : others.getOrDefault(key(pdg, status), 0L);
+        long free = mask & ~taken;
+        return free == 0 ? -1 : Long.numberOfTrailingZeros(free);
+    }
+
+    /**
+     * @return Bit mask of all slots, i.e. of a complete event.
+     */
+    public long complete()
+    {
+        return complete;
+    }
+
+    public int[] getPdg()
+    {
+        return Arrays.copyOf(pdg, pdg.length);
+    }
+
+    public int[] getStatus()
+    {
+        return Arrays.copyOf(status, status.length);
+    }
+
+    private static int index(int pdg, int status)
+    {
+        if (pdg <= -TABLE_PDG || pdg >= TABLE_PDG || status < MIN_STATUS || status > MAX_STATUS)
+            return -1;
+        return (status - MIN_STATUS) * 2 * TABLE_PDG + pdg + TABLE_PDG;
+    }
+
+    private static long key(int pdg, int status)
+    {
+        return (long) pdg << 32 | (status & 0xffffffffL);
+    }
+}
@@ -0,0 +1,177 @@
+package madread;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+
+/**
+ * Stream whose underlying stream is read ahead on a separate thread into a bounded set of reusable blocks. Wrapping a
+ * decompressing stream in it lets inflation run concurrently with the parsing of what has already been inflated, the
+ * reader blocking when all blocks are full and the consumer when all are empty.
+ */
+public class PrefetchInputStream extends InputStream
+{
+    private static final Block END = new Block(0);
+
+    private final InputStream in;
+
+    private final BlockingQueue<Block> full;
+
+    private final BlockingQueue<Block> free;
+
+    private final Thread reader;
+
+    private volatile IOException error;
+
+    /**
+     * Whether the stream is being closed, the reader then stopping at the next block.
+     */
+    private volatile boolean stopped;
+
+    private Block current;
+
+    private int pos;
+
+    private boolean ended;
+
+    /**
+     * @param in Stream to be read ahead.
+     * @param blockSize Size in bytes of each block.
+     * @param blocks Number of blocks, bounding how far the reader runs ahead.
+     */
+    public PrefetchInputStream(InputStream in, int blockSize, int blocks)
+    {
+        this.in = in;
+        full = new ArrayBlockingQueue<>(blocks + 1);
+        free = new ArrayBlockingQueue<>(blocks);
+        for (int i=0; i<blocks; i++)
+            free.add(new Block(blockSize));
+        reader = new Thread(this::readAhead, "madread-prefetch");
+        reader.setDaemon(true);
+        reader.start();
+    }
+
+    private void readAhead()
+    {
+        try
+        {
+            while (!stopped)
+            {
+                Block b = free.take();
+                b.length = in.readNBytes(b.bytes, 0, b.bytes.length);
+                if (b.length == 0)
+                    break;
+                full.put(b);
+            }
+        }
+        catch (IOException e)
+        {
+            error = e;
+        }
+        catch (InterruptedException e)
+        {
+            return;
+        }
+        catch (RuntimeException e)
+        {
+            // e.g. thrown by an inflater; the consumer gets it as a failure to read.
+            error = new IOException(e);
+        }
+        try
+        {
+            full.put(END);
+        }
+        catch (InterruptedException ignored)
+        {
+        }
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException
+    {
+        if (len == 0)
+            return 0;
+        if (!next())
+            return -1;
+        int n = Math.min(len, current.length - pos);
+        System.arraycopy(current.bytes, pos, b, off, n);
+        pos += n;
+        return n;
+    }
+
+    @Override
+    public int read() throws IOException
+    {
+        if (!next())
+            return -1;
+        return current.bytes[pos++] & 0xff;
+    }
+
+    /**
+     * @return Whether there are bytes left in the current block, after fetching the next one if needed.
+     */
+    private boolean next() throws IOException
+    {
+        if (current != null && pos < current.length)
+            return true;
+        if (ended)
+            return false;
+        if (current != null)
+            free.add(current);
+        try
+        {
+            current = full.take();
+        }
+        catch (InterruptedException e)
+        {
+            throw new InterruptedIOException();
+        }
+        pos = 0;
+        if (current == END)
+        {
+            ended = true;
+            current = null;
+            if (error != null)
+                throw error;
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Stop the reader and wait for it before closing the underlying stream, which it may be reading from.
+     */
+    @Override
+    public void close() throws IOException
+    {
+        stopped = true;
+        reader.interrupt();
+        boolean interrupted = false;
+        while (reader.isAlive())
+            try
+            {
+                reader.join();
+            }
+            catch (InterruptedException e)
+            {
+                interrupted = true;
+            }
+        if (interrupted)
+            Thread.currentThread().interrupt();
+        in.close();
+    }
+
+    private static class Block
+    {
+        final byte[] bytes;
+
+        int length;
+
+        Block(int size)
+        {
+            bytes = new byte[size];
+        }
+    }
+}
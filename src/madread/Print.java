@@ -1,9 +1,13 @@
 package madread;
 
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
 import java.io.PrintStream;
 import java.util.Collection;
 import java.util.Iterator;
 import java.util.Map;
+import java.util.function.Supplier;
 
 public class Print
 {
@@ -12,6 +16,127 @@ public class Print
      */
     public static int dashNum = 50;
 
+    /**
+     * Importance of a message, messages below the level set by <code>setLevel</code> being skipped.
+     */
+    public enum Level
+    {
+        DEBUG, INFO, WARN, ERROR, OFF
+    }
+
+    /**
+     * Level below which messages are skipped; the methods printing to the default stream print at INFO.
+     */
+    private static volatile Level level = Level.INFO;
+
+    /**
+     * Stream replacing <code>System.out</code> as the default stream, e.g. over an <code>AsyncSink</code>, or null.
+     */
+    private static volatile PrintStream sink;
+
+    private static AsyncSink async;
+
+    private static boolean hooked;
+
+    /**
+     * Reusable buffer of the text of a primitive array, printed in a single call.
+     */
+    private static final ThreadLocal<StringBuilder> ARRAY_TEXT = ThreadLocal.withInitial(() -> new StringBuilder(256));
+
+    /**
+     * Set the level below which messages are skipped, e.g. WARN to silence progress.
+     */
+    public static void setLevel(Level level)
+    {
+        Print.level = level;
+    }
+
+    /**
+     * @return The level below which messages are skipped.
+     */
+    public static Level getLevel()
+    {
+        return level;
+    }
+
+    /**
+     * @return Whether messages of the level are printed; guard the building of costly messages with it.
+     */
+    public static boolean isEnabled(Level level)
+    {
+        return level != Level.OFF && level.compareTo(Print.level) >= 0;
+    }
+
+    /**
+     * Print the list of objects on a line to the default stream, as <code>println(Object...)</code>, if the level is
+     * enabled.
+     */
+    public static void log(Level level, Object... args)
+    {
+        if (isEnabled(level))
+            println(out(), ", ", args);
+    }
+
+    /**
+     * Print the message supplied on a line to the default stream if the level is enabled, the message not being built
+     * otherwise.
+     */
+    public static void log(Level level, Supplier<?> message)
+    {
+        if (isEnabled(level))
+            out().println(message.get());
+    }
+
+    /**
+     * @return The default stream: that of the asynchronous sink if installed, or else <code>System.out</code>.
+     */
+    public static PrintStream out()
+    {
+        PrintStream s = sink;
+        return s != null ? s : System.out;
+    }
+
+    /**
+     * Print to the standard output through an <code>AsyncSink</code> from now on, replacing any installed before.
+     * @param capacity Size in bytes of the ring of lines not yet written.
+     * @param block Whether printing waits for room when the ring is full, instead of dropping the line.
+     * @return The sink, e.g. to count the lines dropped.
+     */
+    public static synchronized AsyncSink async(int capacity, boolean block)
+    {
+        sync();
+        if (!hooked)
+        {
+            // lines still in the ring at exit are written out.
+            Runtime.getRuntime().addShutdownHook(new Thread(Print::sync));
+            hooked = true;
+        }
+        async = new AsyncSink(new FileOutputStream(FileDescriptor.out), capacity, block);
+        sink = new PrintStream(async, false);
+        return async;
+    }
+
+    /**
+     * Write out everything printed through the asynchronous sink, if installed, and print directly from now on.
+     */
+    public static synchronized void sync()
+    {
+        if (async == null)
+            return;
+        PrintStream s = sink;
+        sink = null;
+        s.flush();
+        try
+        {
+            async.close();
+        }
+        catch (IOException e)
+        {
+            System.err.println("Failed to write printed lines: " + e);
+        }
+        async = null;
+    }
+
     /**
      * Print the variable argument list on the current line--with nested containers, if present, printed in their
      * extrapolated formats: arrays as <code>[]...</code>, collections as <code>&lt;...&gt;</code>, maps as <code>
@@ -37,7 +162,7 @@ public class Print
             if(item == null)
                 pstrm.print("null");
             //If an array is present.
-            else if(item.getClass().getComponentType() != null)
+            else if(item.getClass().isArray())
             {
                 //If a 1D primitive array is encountered.
                 if(printPrimitiveArray(pstrm, delim, item))
@@ -66,7 +191,8 @@ public class Print
      */
     public static void print(Object... args)
     {
-        print(System.out,", ", args);
+        if (isEnabled(Level.INFO))
+            print(out(),", ", args);
     }
 
 
@@ -96,7 +222,8 @@ public class Print
      */
     public static void println(Object... args)
     {
-        println(System.out,", ", args);
+        if (isEnabled(Level.INFO))
+            println(out(),", ", args);
     }
 
     /**
@@ -115,7 +242,8 @@ public class Print
      */
     public static void printSpacedln(Object... args)
     {
-        printSpacedln(System.out, args);
+        if (isEnabled(Level.INFO))
+            printSpacedln(out(), args);
     }
 
     /**
@@ -168,7 +296,8 @@ public class Print
      */
     public static void printArray(Object[] args)
     {
-        printArray(System.out, ", ", args);
+        if (isEnabled(Level.INFO))
+            printArray(out(), ", ", args);
     }
 
     /**
@@ -181,103 +310,63 @@ public class Print
      */
     private static boolean printPrimitiveArray(PrintStream pstrm, String delim, Object obj)
     {
+        StringBuilder text = ARRAY_TEXT.get();
+        text.setLength(0);
+        if(!formatPrimitiveArray(text, delim, obj))
+            return false;
+        pstrm.append(text);
+        //Do not hold on to the text of a huge array.
+        if(text.capacity() > 1 << 16)
+            ARRAY_TEXT.remove();
+        return true;
+    }
+
+    /**
+     * Append the suspect primitive array, if so, to the buffer in the format of <code>printPrimitiveArray</code>, the
+     * elements being formatted into the buffer rather than printed one by one.
+     *
+     * @param text The buffer appended to.
+     * @param obj The suspected primitive array.
+     * @return true if the object is indeed a primitive array and is appended, false otherwise.
+     */
+    public static boolean formatPrimitiveArray(StringBuilder text, String delim, Object obj)
+    {
+        text.append("[");
+        int start = text.length();
         if(obj instanceof boolean[])
+            for(boolean b: (boolean[]) obj)
+                text.append(b).append(delim);
+        else if(obj instanceof byte[])
+            for(byte b: (byte[]) obj)
+                text.append(b).append(delim);
+        else if(obj instanceof char[])
+            for(char c: (char[]) obj)
+                text.append(c).append(delim);
+        else if(obj instanceof short[])
+            for(short v: (short[]) obj)
+                text.append(v).append(delim);
+        else if(obj instanceof int[])
+            for(int v: (int[]) obj)
+                text.append(v).append(delim);
+        else if(obj instanceof long[])
+            for(long v: (long[]) obj)
+                text.append(v).append(delim);
+        else if(obj instanceof float[])
+            for(float v: (float[]) obj)
+                text.append(v).append(delim);
+        else if(obj instanceof double[])
+            for(double v: (double[]) obj)
+                text.append(v).append(delim);
+        else
         {
-            pstrm.print("[");
-            boolean[] casted = (boolean[])obj;
-            for(int i = 0; i < casted.length; i++)
-                if(i != casted.length - 1)
-                    pstrm.print(casted[i] + delim);
-                else
-                    pstrm.print(casted[i]);
-            pstrm.print("]");
-            return true;
-        }
-        if(obj instanceof byte[])
-        {
-            pstrm.print("[");
-            byte[] casted = (byte[]) obj;
-            for(int i = 0; i < casted.length; i++)
-                if(i != casted.length - 1)
-                    pstrm.print(casted[i] + delim);
-                else
-                    pstrm.print(casted[i]);
-            pstrm.print("]");
-            return true;
-        }
-        if(obj instanceof char[])
-        {
-            pstrm.print("[");
-            char[] casted = (char[]) obj;
-            for(int i = 0; i < casted.length; i++)
-                if(i != casted.length - 1)
-                    pstrm.print(casted[i] + delim);
-                else
-                    pstrm.print(casted[i]);
-            pstrm.print("]");
-            return true;
-        }
-        if(obj instanceof short[])
-        {
-            pstrm.print("[");
-            short[] casted = (short[]) obj;
-            for(int i = 0; i < casted.length; i++)
-                if(i != casted.length - 1)
-                    pstrm.print(casted[i] + delim);
-                else
-                    pstrm.print(casted[i]);
-            pstrm.print("]");
-            return true;
-        }
-        if(obj instanceof int[])
-        {
-            pstrm.print("[");
-            int[] casted = (int[]) obj;
-            for(int i = 0; i < casted.length; i++)
-                if(i != casted.length - 1)
-                    pstrm.print(casted[i] + delim);
-                else
-                    pstrm.print(casted[i]);
-            pstrm.print("]");
-            return true;
-        }
-        if(obj instanceof long[])
-        {
-            pstrm.print("[");
-            long[] casted = (long[]) obj;
-            for(int i = 0; i < casted.length; i++)
-                if(i != casted.length - 1)
-                    pstrm.print(casted[i] + delim);
-                else
-                    pstrm.print(casted[i]);
-            pstrm.print("]");
-            return true;
-        }
-        if(obj instanceof float[])
-        {
-            pstrm.print("[");
-            float[] casted = (float[]) obj;
-            for(int i = 0; i < casted.length; i++)
-                if(i != casted.length - 1)
-                    pstrm.print(casted[i] + delim);
-                else
-                    pstrm.print(casted[i]);
-            pstrm.print("]");
-            return true;
-        }
-        if(obj instanceof double[])
-        {
-            pstrm.print("[");
-            double[] casted = (double[]) obj;
-            for(int i = 0; i < casted.length; i++)
-                if(i != casted.length - 1)
-                    pstrm.print(casted[i] + delim);
-                else
-                    pstrm.print(casted[i]);
-            pstrm.print("]");
-            return true;
+            text.setLength(start - 1);
+            return false;
         }
-        return false;
+        //Drop the delimiter after the last element.
+        if(text.length() > start)
+            text.setLength(text.length() - delim.length());
+        text.append("]");
+        return true;
     }
 
     /**
@@ -382,7 +471,7 @@ public class Print
      */
     public static void printDup(Object dup, int num, String delim, PrintStream... pstrm)
     {
-        PrintStream ps = pstrm.length == 0? System.out: pstrm[0];
+        PrintStream ps = pstrm.length == 0? out(): pstrm[0];
         for(int i = 0; i < num; i++)
         {
             print(dup);
@@ -401,7 +490,7 @@ public class Print
      */
     public static void printDupln(Object dup, int num, String delim, PrintStream... pstrm)
     {
-        PrintStream ps = pstrm.length == 0? System.out: pstrm[0];
+        PrintStream ps = pstrm.length == 0? out(): pstrm[0];
         printDup(dup, num, delim, pstrm);
         ps.println();
     }
@@ -419,7 +508,7 @@ public class Print
         if(pstrm.length != 0)
             printDashln(pstrm[0], dashNum);
         else
-            printDashln(System.out, dashNum);
+            printDashln(out(), dashNum);
     }
 
     /**
@@ -451,7 +540,7 @@ public class Print
      */
     public static void printTitleln(Object title, PrintStream... pstrm)
     {
-        PrintStream ps = pstrm.length == 0? System.out: pstrm[0];
+        PrintStream ps = pstrm.length == 0? out(): pstrm[0];
         printDash(ps,dashNum/2);
         print(ps, "", title);
         printDash(ps, dashNum/2);
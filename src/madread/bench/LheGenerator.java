@@ -0,0 +1,172 @@
+package madread.bench;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+import java.util.zip.GZIPOutputStream;
+
+/**
+ * Generator of synthetic .lhe files in the layout written by MadGraph, for benchmarking: e+ e- beams of 500 GeV going
+ * into a configurable number of outgoing particles with random momenta balanced in 3-momentum, each event carrying its
+ * <code>&lt;mgrwt&gt;</code> block and two multi-weights. The kinematics are not those of any process, only the text
+ * is realistic, so the same seed always gives the same file.
+ */
+public abstract class LheGenerator
+{
+    /**
+     * PDG codes of the outgoing particles, taken in turn.
+     */
+    public static final int[] PRODUCTS = {15, -15, 13, -13, 1, -1, 2, -2, 3, -3, 4, -4, 5, -5, 21, 22};
+
+    private static final double[] MASSES = {1.777, 1.777, 0.1057, 0.1057, 0, 0, 0, 0, 0, 0, 1.5, 1.5, 4.7, 4.7, 0, 0};
+
+    public static final int[] REAGENTS = {-11, 11};
+
+    private static final double EBEAM = 500;
+
+    private static final double SIGMA = 0.13521;
+
+    /**
+     * Format of a particle line given its PDG code, status and mothers.
+     */
+    private static final String PARTICLE = "%9d %2d %4d %4d    0    0 %+.10e %+.10e %+.10e %.10e %.10e %.4e %.4e\n";
+
+    /**
+     * @return PDG codes of the given number of outgoing particles as written by <code>write</code>.
+     */
+    public static int[] products(int outgoing)
+    {
+        int[] pdg = new int[outgoing];
+        for (int i=0; i<outgoing; i++)
+            pdg[i] = PRODUCTS[i % PRODUCTS.length];
+        return pdg;
+    }
+
+    /**
+     * Write a file of events.
+     * @param lheFilePath Path (in string) of the file, compressed if it ends in .gz; its directory is created if
+     *                    absent.
+     * @param outgoing Number of outgoing particles of every event, the multiplicity being two more.
+     * @param events Number of events.
+     * @param seed Seed of the momenta.
+     * @return Size of the file in bytes, before compression.
+     * @throws IOException
+     */
+    public static long write(String lheFilePath, int outgoing, long events, long seed) throws IOException
+    {
+        if (outgoing < 1)
+            throw new RuntimeException("At least one outgoing particle is needed!");
+        Random random = new Random(seed);
+        long bytes = 0;
+        try (Writer out = open(lheFilePath))
+        {
+            String header = String.format("<LesHouchesEvents version=\"3.0\">\n<header>\n"
+                    + "<MGVersion>\n3.5.1\n</MGVersion>\n<MGGenerationInfo>\n"
+                    + "#  Number of Events        :       %d\n#  Integrated weight (pb)  :       %s\n"
+                    + "</MGGenerationInfo>\n<initrwgt>\n"
+                    + "<weight id='1'> nominal </weight>\n<weight id='2'> muR=2 </weight>\n</initrwgt>\n</header>\n"
+                    + "<init>\n     -11      11 %+.10e %+.10e 0 0 0 0 3 1\n %+.10e %+.10e %+.10e 1\n"
+                    + "<generator name='MadGraph5_aMC@NLO' version='3.5.1'>please cite 1405.0301 </generator>\n"
+                    + "</init>\n",
+                    events, SIGMA, EBEAM, EBEAM, SIGMA, 2.1e-4, SIGMA);
+            out.write(header);
+            bytes += header.length();
+            double[][] p = new double[outgoing][3];
+            StringBuilder event = new StringBuilder(256 + 160 * outgoing);
+            for (long n=0; n<events; n++)
+            {
+                momenta(random, p);
+                event.setLength(0);
+                event.append(String.format("<event>\n %d      1 %+.7e %.8e %.8e %.8e\n", outgoing + 2, SIGMA, EBEAM,
+                        7.546771e-03, 1.3e-01));
+                for (int b=0; b<2; b++)
+                    event.append(String.format(PARTICLE, REAGENTS[b], -1, 0, 0, 0.0, 0.0, b == 0 ? EBEAM : -EBEAM,
+                            EBEAM, 0.0, 0.0, b == 0 ? 1.0 : -1.0));
+                for (int i=0; i<outgoing; i++)
+                {
+                    double m = MASSES[i % MASSES.length];
+                    double e = Math.sqrt(p[i][0] * p[i][0] + p[i][1] * p[i][1] + p[i][2] * p[i][2] + m * m);
+                    event.append(String.format(PARTICLE, PRODUCTS[i % PRODUCTS.length], 1, 1, 2, p[i][0], p[i][1],
+                            p[i][2], e, m, 0.0, random.nextBoolean() ? 1.0 : -1.0));
+                }
+                event.append(String.format("<mgrwt>\n<rscale>  0 0.50000000E+03</rscale>\n</mgrwt>\n<rwgt>\n"
+                        + "<wgt id='1'> %+.7e </wgt>\n<wgt id='2'> %+.7e </wgt>\n</rwgt>\n</event>\n", SIGMA,
+                        SIGMA * (0.8 + 0.4 * random.nextDouble())));
+                out.append(event);
+                bytes += event.length();
+            }
+            out.write("</LesHouchesEvents>\n");
+            bytes += 20;
+        }
+        return bytes;
+    }
+
+    /**
+     * Draw momenta of random directions and magnitudes up to the beam energy, shifted so that they sum to zero.
+     */
+    private static void momenta(Random random, double[][] p)
+    {
+        double[] sum = new double[3];
+        for (double[] q: p)
+        {
+            double r = EBEAM * random.nextDouble() / p.length;
+            double cos = 2 * random.nextDouble() - 1, sin = Math.sqrt(1 - cos * cos);
+            double phi = 2 * Math.PI * random.nextDouble();
+            q[0] = r * sin * Math.cos(phi);
+            q[1] = r * sin * Math.sin(phi);
+            q[2] = r * cos;
+            for (int k=0; k<3; k++)
+                sum[k] += q[k];
+        }
+        for (double[] q: p)
+            for (int k=0; k<3; k++)
+                q[k] -= sum[k] / p.length;
+    }
+
+    /**
+     * Write a crossx.html listing the given number of runs, each as a link to its results.html.
+     * @return Size of the file in bytes.
+     * @throws IOException
+     */
+    public static long crossx(String path, int runs, long seed) throws IOException
+    {
+        Random random = new Random(seed);
+        StringBuilder html = new StringBuilder("<html><table class=x>\n");
+        for (int r=1; r<=runs; r++)
+        {
+            double sigma = SIGMA * (0.5 + random.nextDouble());
+            html.append(String.format("<tr><td><a href=\"./HTML/run_%02d/results.html\"> %.5g <font face=symbol>&#177"
+                    + "</font> %.2g </a></td></tr>\n", r, sigma, sigma * 1.5e-3));
+        }
+        html.append("</table></html>\n");
+        try (Writer out = open(path))
+        {
+            out.append(html);
+        }
+        return html.length();
+    }
+
+    private static Writer open(String path) throws IOException
+    {
+        File file = new File(path).getAbsoluteFile();
+        if (file.getParentFile() != null)
+            file.getParentFile().mkdirs();
+        FileOutputStream os = new FileOutputStream(file);
+        return new BufferedWriter(new OutputStreamWriter(path.endsWith(".gz") ? new GZIPOutputStream(os, 1 << 16) : os,
+                StandardCharsets.US_ASCII), 1 << 16);
+    }
+
+    /**
+     * @param args Path of the file, number of outgoing particles, number of events and optionally the seed.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        long seed = args.length > 3 ? Long.parseLong(args[3]) : 1;
+        write(args[0], Integer.parseInt(args[1]), Long.parseLong(args[2]), seed);
+    }
+}
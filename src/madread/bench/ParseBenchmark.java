@@ -0,0 +1,254 @@
+package madread.bench;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.management.GarbageCollectorMXBean;
+import java.lang.management.ManagementFactory;
+import java.util.ArrayList;
+import java.util.List;
+
+import madread.CrossSections;
+import madread.CsvExport;
+import madread.CsvWriter;
+import madread.EventStore;
+import madread.MadReader;
+import madread.Print;
+
+/**
+ * Benchmark of the stages of parsing on synthetic files made by <code>LheGenerator</code>: the legacy steps, i.e.
+ * extraction of the event block, its splitting into events and the parsing of their particle lines, the streaming and
+ * mapped parsers that replace them, the export of the momenta to .csv and the extraction of cross sections. Every stage
+ * is run a number of times to warm up and then measured, its inputs being prepared outside the measured time, and is
+ * reported as the mean over the measured runs of its throughput in items (events or runs) and megabytes of input per
+ * second, of the bytes it allocates per item and per second, and of the garbage collections it triggers. Allocations
+ * are those of the measuring thread, which runs every stage.
+ */
+public class ParseBenchmark
+{
+    /**
+     * Work measured, once prepared.
+     */
+    private interface Op
+    {
+        void run() throws IOException;
+    }
+
+    /**
+     * Stage of the pipeline: preparation of its inputs, which is not measured, returning the work measured.
+     */
+    private interface Stage
+    {
+        Op prepare() throws IOException;
+    }
+
+    /**
+     * Outcome of a stage.
+     */
+    public static final class Result
+    {
+        public final String stage;
+
+        public final double itemsPerSecond, megabytesPerSecond, bytesPerItem, allocationRate, collections;
+
+        Result(String stage, double itemsPerSecond, double megabytesPerSecond, double bytesPerItem,
+               double allocationRate, double collections)
+        {
+            this.stage = stage;
+            this.itemsPerSecond = itemsPerSecond;
+            this.megabytesPerSecond = megabytesPerSecond;
+            this.bytesPerItem = bytesPerItem;
+            this.allocationRate = allocationRate;
+            this.collections = collections;
+        }
+
+        @Override
+        public String toString()
+        {
+            return String.format("%-12s %12.0f %10.1f %12.0f %10.1f %6.1f", stage, itemsPerSecond, megabytesPerSecond,
+                    bytesPerItem, allocationRate, collections);
+        }
+    }
+
+    private final String dir;
+
+    private final int outgoing;
+
+    private final long events;
+
+    private final int warmup, iterations;
+
+    private final String lhe, crossx;
+
+    private long lheBytes, crossxBytes;
+
+    private static final int RUNS = 1000;
+
+    /**
+     * @param dir Directory of the generated inputs and of the outputs, ending with '/'.
+     * @param outgoing Number of outgoing particles of every event.
+     * @param events Number of events of the generated file.
+     * @param warmup Number of runs of a stage before measuring.
+     * @param iterations Number of runs of a stage measured.
+     */
+    public ParseBenchmark(String dir, int outgoing, long events, int warmup, int iterations)
+    {
+        this.dir = dir;
+        this.outgoing = outgoing;
+        this.events = events;
+        this.warmup = warmup;
+        this.iterations = iterations;
+        lhe = String.format("%sbench_%d_%d.lhe", dir, outgoing, events);
+        crossx = dir + "crossx.html";
+    }
+
+    private MadReader reader() throws IOException
+    {
+        return new MadReader(LheGenerator.REAGENTS, LheGenerator.products(outgoing), lhe);
+    }
+
+    /**
+     * Generate the inputs unless present and measure every stage.
+     * @return The outcome of every stage in order.
+     * @throws IOException
+     */
+    public List<Result> run() throws IOException
+    {
+        if (!new File(lhe).isFile())
+            LheGenerator.write(lhe, outgoing, events, 1);
+        lheBytes = new File(lhe).length();
+        crossxBytes = LheGenerator.crossx(crossx, RUNS, 1);
+        List<Result> results = new ArrayList<>();
+        results.add(measure("block", events, lheBytes, () -> reader()::extractEventBlock));
+        results.add(measure("split", events, lheBytes, () -> {
+            MadReader r = reader();
+            r.extractEventBlock();
+            return r::extractEvents;
+        }));
+        results.add(measure("lines", events, lheBytes, () -> {
+            MadReader r = reader();
+            r.extractEventBlock();
+            r.extractEvents();
+            return r::extractMomenta;
+        }));
+        results.add(measure("parse", events, lheBytes, () -> reader()::parse));
+        results.add(measure("parseMapped", events, lheBytes, () -> reader()::parseMapped));
+        results.add(measure("csv", events, lheBytes, () -> {
+            MadReader r = reader();
+            r.parse();
+            EventStore store = r.getStore();
+            return () -> CsvExport.momenta(store, dir + "sim_momenta/");
+        }));
+        results.add(measure("crossx", RUNS, crossxBytes, () -> () -> CrossSections.fromCrossx(crossx)));
+        results.add(measure("crossLhe", 1, 0, () -> () -> CrossSections.fromLhe("run_01", lhe)));
+        return results;
+    }
+
+    private Result measure(String name, long items, long bytes, Stage stage) throws IOException
+    {
+        com.sun.management.ThreadMXBean threads = allocationBean();
+        double nanos = 0, allocated = 0, collections = 0;
+        for (int i=0; i<warmup+iterations; i++)
+        {
+            Op op = silently(stage::prepare);
+            long gc = collections();
+            long alloc = threads == null ? 0 : threads.getCurrentThreadAllocatedBytes();
+            long start = System.nanoTime();
+            silently(() -> {
+                op.run();
+                return null;
+            });
+            long time = System.nanoTime() - start;
+            if (i < warmup)
+                continue;
+            nanos += time;
+            allocated += threads == null ? Double.NaN : threads.getCurrentThreadAllocatedBytes() - alloc;
+            collections += collections() - gc;
+        }
+        double seconds = nanos / 1e9;
+        return new Result(name, items * iterations / seconds, bytes * iterations / 1e6 / seconds,
+                allocated / items / iterations, allocated / 1e6 / seconds, collections / iterations);
+    }
+
+    private interface Call<T>
+    {
+        T call() throws IOException;
+    }
+
+    /**
+     * Run without the progress printed by the readers, which is skipped below WARN whichever stream
+     * <code>Print</code> writes to, e.g. the sink of <code>Print.async</code>.
+     */
+    private static <T> T silently(Call<T> call) throws IOException
+    {
+        Print.Level level = Print.getLevel();
+        Print.setLevel(Print.Level.WARN);
+        try
+        {
+            return call.call();
+        }
+        finally
+        {
+            Print.setLevel(level);
+        }
+    }
+
+    /**
+     * @return The bean counting the bytes allocated per thread, or null if the JVM does not count them.
+     */
+    private static com.sun.management.ThreadMXBean allocationBean()
+    {
+        if (!(ManagementFactory.getThreadMXBean() instanceof com.sun.management.ThreadMXBean))
+            return null;
+        com.sun.management.ThreadMXBean bean = (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+        if (!bean.isThreadAllocatedMemorySupported())
+            return null;
+        bean.setThreadAllocatedMemoryEnabled(true);
+        return bean;
+    }
+
+    private static long collections()
+    {
+        long n = 0;
+        for (GarbageCollectorMXBean gc: ManagementFactory.getGarbageCollectorMXBeans())
+            n += Math.max(0, gc.getCollectionCount());
+        return n;
+    }
+
+    /**
+     * Write the outcomes as a table, one row per stage.
+     * @param file Path (in string) of the .csv file.
+     * @throws IOException
+     */
+    public static void write(List<Result> results, String file) throws IOException
+    {
+        try (CsvWriter out = new CsvWriter(new File(file),
+                "stage, items/s, MB/s, allocated B/item, allocated MB/s, collections"))
+        {
+            for (Result r: results)
+            {
+                out.add(r.stage).add(r.itemsPerSecond).add(r.megabytesPerSecond).add(r.bytesPerItem);
+                out.add(r.allocationRate).add(r.collections);
+                out.endRow();
+            }
+        }
+    }
+
+    /**
+     * @param args Directory ending with '/', and optionally the number of outgoing particles, of events, of warm-up
+     *             runs and of measured runs, by default 2, 100000, 3 and 5. The outcomes are printed and written into
+     *             bench.csv in the directory.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        int outgoing = args.length > 1 ? Integer.parseInt(args[1]) : 2;
+        long events = args.length > 2 ? Long.parseLong(args[2]) : 100000;
+        int warmup = args.length > 3 ? Integer.parseInt(args[3]) : 3;
+        int iterations = args.length > 4 ? Integer.parseInt(args[4]) : 5;
+        List<Result> results = new ParseBenchmark(args[0], outgoing, events, warmup, iterations).run();
+        System.out.println(String.format("%-12s %12s %10s %12s %10s %6s", "stage", "items/s", "MB/s", "alloc B/item",
+                "alloc MB/s", "GCs"));
+        for (Result r: results)
+            System.out.println(r);
+        write(results, args[0] + "bench.csv");
+    }
+}
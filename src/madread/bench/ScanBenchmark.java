@@ -0,0 +1,94 @@
+package madread.bench;
+
+import static madread.utils.Utils.*;
+
+import java.util.Arrays;
+
+import madread.lpp.AdaptiveScan;
+
+/**
+ * Comparison of the adaptive scan of <code>AdaptiveScan</code> with the fixed grid of
+ * <code>LeptonPairScript.main</code> on a synthetic cross section of lepton pair production near threshold,
+ * sigma ~ v(3 - v^2)/2 / s, simulated with a fixed relative uncertainty. Each scan is judged by its number of runs and
+ * by its resolution, i.e. the largest relative error of interpolating the cross section between its points, linearly
+ * in the logarithms of the cross section and of the velocity, over a fine grid of the same range of velocities.
+ */
+public abstract class ScanBenchmark
+{
+    private static final double mtau = 100;
+    private static final double alpha = 1.0/137;
+
+    /**
+     * Relative uncertainty of every simulated point.
+     */
+    private static final double ERROR = 0.003;
+
+    /**
+     * @return Synthetic cross section in pb at a beam energy.
+     */
+    static double sigma(double ebeam)
+    {
+        double r = mtau / ebeam;
+        double v = Math.sqrt(1 - r*r);
+        return 1e5 * v * (3 - v*v) / 2 / (4*ebeam*ebeam);
+    }
+
+    /**
+     * @return Largest relative error of interpolating the cross section between the given beam energies.
+     */
+    static double resolution(double[] E, double vmin, double vmax)
+    {
+        E = E.clone();
+        Arrays.sort(E);
+        double[] x = new double[E.length], y = new double[E.length];
+        for (int i=0; i<E.length; i++)
+        {
+            double r = mtau / E[i];
+            x[i] = Math.log(Math.sqrt(1 - r*r));
+            y[i] = Math.log(sigma(E[i]));
+        }
+        double worst = 0;
+        int n = 10000;
+        for (int k=0; k<=n; k++)
+        {
+            double xk = Math.log(vmin) + (Math.log(vmax) - Math.log(vmin)) * k / n;
+            int j = Arrays.binarySearch(x, xk);
+            if (j < 0)
+                j = Math.min(Math.max(-j - 2, 0), x.length - 2);
+            else
+                j = Math.min(j, x.length - 2);
+            double t = (xk - x[j]) / (x[j+1] - x[j]);
+            double interpolated = Math.exp((1-t)*y[j] + t*y[j+1]);
+            double exact = sigma(lfactor(Math.exp(xk))*mtau);
+            worst = Math.max(worst, Math.abs(interpolated / exact - 1));
+        }
+        return worst;
+    }
+
+    /**
+     * @param args Optionally the relative curvature tolerance of the adaptive scan, by default 0.02, and the number of
+     *             points of its first round, by default 10. Both scans and their resolutions are printed.
+     */
+    public static void main(String[] args)
+    {
+        double tolerance = args.length > 0 ? Double.parseDouble(args[0]) : 0.02;
+        int coarse = args.length > 1 ? Integer.parseInt(args[1]) : 10;
+        double vmin = alpha/80, vmax = 0.9;
+        AdaptiveScan scan = new AdaptiveScan(mtau, tolerance, 10 * ERROR);
+        double[] E = AdaptiveScan.grid(mtau, vmin, vmax, coarse);
+        int runs = 0, round = 0;
+        while (E.length != 0)
+        {
+            for (double e: E)
+                scan.add(e, sigma(e), ERROR * sigma(e));
+            runs += E.length;
+            System.out.println(String.format("round %d: %d points", round++, E.length));
+            E = scan.refine(8);
+        }
+        double[] adaptive = scan.energies();
+        double[] fixed = AdaptiveScan.grid(mtau, vmin, vmax, 40);
+        System.out.println(String.format("adaptive: %d runs, resolution %.4f", runs, resolution(adaptive, vmin, vmax)));
+        System.out.println(String.format("fixed:    %d runs, resolution %.4f", fixed.length,
+                resolution(fixed, vmin, vmax)));
+    }
+}
@@ -0,0 +1,361 @@
+package madread.lpp;
+
+import static madread.Print.*;
+import static madread.utils.Utils.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import madread.CrossSections;
+import madread.CsvWriter;
+
+/**
+ * Scan of the cross section over beam energies refined where it is needed instead of on a fixed grid. The scan starts
+ * from a coarse grid, uniform in the logarithm of the velocity of the produced pair, and is fed the cross sections
+ * simulated so far, read back from the run directories or from the tables of <code>extractCrossSections</code>; every
+ * round then bisects, in the same variable, only the intervals next to a point where the cross section departs from
+ * the straight line through its neighbours, in logarithm, by more than a relative tolerance, or whose relative
+ * uncertainty exceeds another, so that simulations go where the cross section bends rather than where it follows a
+ * power of the velocity.
+ */
+public class AdaptiveScan
+{
+    private static final double mtau = 100;
+    private static final double alpha = 1.0/137;
+
+    /**
+     * Number of rounds run by <code>main</code> at most.
+     */
+    private static final int MAX_ROUNDS = 6;
+
+    private final double mass;
+
+    private final double curvatureTolerance, errorTolerance;
+
+    /**
+     * Smallest width of an interval, in the logarithm of the velocity, left after bisecting it.
+     */
+    private double minSpacing = 1e-3;
+
+    /**
+     * Points simulated, by beam energy: cross section and uncertainty in pb.
+     */
+    private final Map<Double, double[]> points = new HashMap<>();
+
+    /**
+     * @param mass Mass in GeV of the produced particle, relating the beam energy to its velocity.
+     * @param curvatureTolerance Relative departure of the cross section at a point from the line through its
+     *                           neighbours above which the intervals around the point are bisected.
+     * @param errorTolerance Relative uncertainty of the cross section at a point above which the intervals around it
+     *                       are bisected.
+     */
+    public AdaptiveScan(double mass, double curvatureTolerance, double errorTolerance)
+    {
+        if (mass <= 0 || curvatureTolerance <= 0 || errorTolerance <= 0)
+            throw new RuntimeException("Mass and tolerances must be positive!");
+        this.mass = mass;
+        this.curvatureTolerance = curvatureTolerance;
+        this.errorTolerance = errorTolerance;
+    }
+
+    /**
+     * @param minSpacing Smallest width of an interval, in the logarithm of the velocity, left after bisecting it.
+     * @return This scan.
+     */
+    public AdaptiveScan minSpacing(double minSpacing)
+    {
+        this.minSpacing = minSpacing;
+        return this;
+    }
+
+    /**
+     * Beam energies of velocities spaced evenly in logarithm, as in <code>LeptonPairScript.main</code>.
+     * @param mass Mass in GeV of the produced particle.
+     * @param vmin Smallest velocity.
+     * @param vmax Largest velocity.
+     * @param n Number of points, at least 2.
+     * @return Beam energies in GeV.
+     */
+    public static double[] grid(double mass, double vmin, double vmax, int n)
+    {
+        if (n < 2)
+            throw new RuntimeException("A grid needs at least two points!");
+        double pinc = Math.pow(vmax/vmin, 1.0/(n-1));
+        double[] E = new double[n];
+        for (int i=0; i<n; i++)
+            E[i] = lfactor(vmin*Math.pow(pinc, i))*mass;
+        return E;
+    }
+
+    /**
+     * Add a simulated point. A point at an energy already scanned, e.g. rerun with another seed, is combined with it,
+     * weighting by the inverse square of the uncertainties.
+     * @param ebeam Beam energy in GeV.
+     * @param sigma Cross section in pb.
+     * @param error Uncertainty of the cross section in pb.
+     */
+    public void add(double ebeam, double sigma, double error)
+    {
+        if (!(ebeam > mass))
+            throw new RuntimeException("Beam energy must exceed the mass!");
+        double[] p = points.get(ebeam);
+        if (p == null || !(p[1] > 0) || !(error > 0))
+        {
+            points.put(ebeam, new double[]{sigma, error});
+            return;
+        }
+        double w1 = 1 / (p[1]*p[1]), w2 = 1 / (error*error);
+        p[0] = (w1*p[0] + w2*sigma) / (w1 + w2);
+        p[1] = 1 / Math.sqrt(w1 + w2);
+    }
+
+    /**
+     * Add the runs of known beam energy.
+     */
+    public void add(CrossSections cs)
+    {
+        for (CrossSections.Run run: cs.getRuns())
+            if (!Double.isNaN(run.ebeam1))
+                add(run.ebeam1, run.sigma, run.error);
+    }
+
+    /**
+     * Add the runs of the points of a manifest written by <code>LeptonPairScript.iterateEbeams</code>, reading the
+     * cross sections from the process directories it lists. The beam energy of a run is taken from the manifest, so
+     * that runs read from results.html count too; points not yet run are left out.
+     * @param manifest Path (in string) of the manifest.
+     * @param mgDir Directory the process directories of the manifest are relative to, ending with '/'.
+     * @param threads Number of runs read concurrently.
+     * @return Number of points added.
+     * @throws IOException
+     */
+    public int addManifest(String manifest, String mgDir, int threads) throws IOException
+    {
+        List<String[]> rows = table(manifest);
+        Set<String> dirs = new LinkedHashSet<>();
+        for (String[] row: rows)
+            dirs.add(row[6]);
+        Map<String, CrossSections.Run> runs = new HashMap<>();
+        for (String dir: dirs)
+        {
+            if (!new File(mgDir + dir, "Events").isDirectory())
+                continue;
+            for (CrossSections.Run run: CrossSections.scan(mgDir + dir, threads).getRuns())
+                runs.put(dir + "/" + run.run, run);
+        }
+        int added = 0;
+        for (String[] row: rows)
+        {
+            CrossSections.Run run = runs.get(row[6] + "/" + row[7]);
+            if (run == null)
+                continue;
+            add(Double.parseDouble(row[1]), run.sigma, run.error);
+            added++;
+        }
+        return added;
+    }
+
+    /**
+     * Add the points of the tables of <code>LeptonPairScript.writeEnergy</code> and
+     * <code>MadReader.extractCrossSections</code> from crossx.html, matched row by row.
+     * @param energyFile Path (in string) of the table of beam energies.
+     * @param crossSectionFile Path (in string) of the table of cross sections and uncertainties.
+     * @throws IOException
+     */
+    public void add(String energyFile, String crossSectionFile) throws IOException
+    {
+        List<String[]> E = table(energyFile), cs = table(crossSectionFile);
+        if (E.size() != cs.size())
+            throw new RuntimeException("Numbers of beam energies and cross sections not equal!");
+        for (int i=0; i<E.size(); i++)
+            add(Double.parseDouble(E.get(i)[0]), Double.parseDouble(cs.get(i)[0]), Double.parseDouble(cs.get(i)[1]));
+    }
+
+    /**
+     * Rows of a .csv file, its header aside, split into trimmed fields.
+     */
+    private static List<String[]> table(String file) throws IOException
+    {
+        List<String[]> rows = new ArrayList<>();
+        List<String> lines = Files.readAllLines(Paths.get(file), StandardCharsets.UTF_8);
+        for (int i=1; i<lines.size(); i++)
+        {
+            if (lines.get(i).isBlank())
+                continue;
+            String[] row = lines.get(i).split(",");
+            for (int j=0; j<row.length; j++)
+                row[j] = row[j].trim();
+            rows.add(row);
+        }
+        return rows;
+    }
+
+    /**
+     * @return Number of points simulated.
+     */
+    public int size()
+    {
+        return points.size();
+    }
+
+    /**
+     * @return Beam energies in GeV of the points simulated, in increasing order.
+     */
+    public double[] energies()
+    {
+        double[] E = new double[points.size()];
+        int k = 0;
+        for (double e: points.keySet())
+            E[k++] = e;
+        Arrays.sort(E);
+        return E;
+    }
+
+    /**
+     * @return Logarithm of the velocity of the produced particles at a beam energy.
+     */
+    private double x(double ebeam)
+    {
+        double r = mass / ebeam;
+        return Math.log(Math.sqrt(1 - r*r));
+    }
+
+    /**
+     * Beam energies of the next round: the midpoints of the intervals to bisect, those of the largest departure from
+     * the tolerances first.
+     * @param maxPoints Number of energies returned at most.
+     * @return Beam energies in GeV in increasing order, none once the scan meets the tolerances.
+     */
+    public double[] refine(int maxPoints)
+    {
+        int n = points.size();
+        if (n < 2)
+            throw new RuntimeException("Refining needs at least two points!");
+        double[] E = energies();
+        double[] x = new double[n], sigma = new double[n], error = new double[n];
+        for (int i=0; i<n; i++)
+        {
+            x[i] = x(E[i]);
+            sigma[i] = points.get(E[i])[0];
+            error[i] = points.get(E[i])[1];
+        }
+        // score of interval i, between points i and i+1, as the largest ratio to its tolerance of a criterion at
+        // either end; only scores above 1 are bisected.
+        double[] score = new double[n-1];
+        for (int i=0; i<n; i++)
+        {
+            double scale = Math.max(Math.abs(sigma[i]), Double.MIN_NORMAL);
+            double s = error[i] / scale / errorTolerance;
+            if (i > 0 && i < n-1)
+            {
+                double t = (x[i] - x[i-1]) / (x[i+1] - x[i-1]), departure;
+                // in logarithm where possible, so that a power of the velocity, as at threshold, is a straight line.
+                if (sigma[i-1] > 0 && sigma[i] > 0 && sigma[i+1] > 0)
+                    departure = Math.expm1(Math.abs(Math.log(sigma[i]) - (1-t)*Math.log(sigma[i-1])
+                            - t*Math.log(sigma[i+1])));
+                else
+                    departure = Math.abs(sigma[i] - (1-t)*sigma[i-1] - t*sigma[i+1]) / scale;
+                s = Math.max(s, departure / curvatureTolerance);
+            }
+            if (i > 0)
+                score[i-1] = Math.max(score[i-1], s);
+            if (i < n-1)
+                score[i] = Math.max(score[i], s);
+        }
+        // a bare pair of points has no curvature to go by.
+        if (n == 2)
+            score[0] = Math.max(score[0], 2);
+        List<Integer> intervals = new ArrayList<>();
+        for (int i=0; i<n-1; i++)
+            if (score[i] > 1 && x[i+1] - x[i] >= 2*minSpacing)
+                intervals.add(i);
+        intervals.sort((a, b) -> Double.compare(score[b], score[a]));
+        double[] next = new double[Math.min(maxPoints, intervals.size())];
+        for (int i=0; i<next.length; i++)
+        {
+            int j = intervals.get(i);
+            next[i] = lfactor(Math.exp((x[j] + x[j+1]) / 2))*mass;
+        }
+        Arrays.sort(next);
+        return next;
+    }
+
+    /**
+     * Write the points simulated, in increasing beam energy, creating the folder if absent.
+     * @param file Path (in string) of the .csv file.
+     * @throws IOException
+     */
+    public void write(String file) throws IOException
+    {
+        double[] E = energies();
+        try (CsvWriter out = new CsvWriter(new File(file), "ebeam (GeV), cross section (pb), uncertainty (pb)"))
+        {
+            for (double e: E)
+            {
+                out.add(e).add(points.get(e)[0]).add(points.get(e)[1]);
+                out.endRow();
+            }
+        }
+    }
+
+    /**
+     * Scan in rounds: the first simulates a coarse grid, and every later one the energies refined from the rounds
+     * before, each round writing its shard scripts and manifest as adaptive_rNN_*.txt and adaptive_rNN_manifest.csv,
+     * its process directories numbered alike, and seeds distinct across rounds.
+     * @param args MadGraph directory, ending with '/', the process directories are relative to, optionally the number
+     *             of shards, by default the number of cores, and the MadGraph executable, run in the MadGraph
+     *             directory, e.g. bin/mg5_aMC. With the executable, the rounds are run until the scan meets its
+     *             tolerances; without, only the next round is written from the manifests of the rounds already in the
+     *             directory of the scripts.
+     */
+    public static void main(String[] args) throws IOException
+    {
+        String mgDir = args[0];
+        int shards = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        String processDir = "Repository/e-e+_tau-tau+/lpp_adaptive";
+        String writeDir = "./src/madread/cases/e-e+_tau-tau+/trials/";
+        AdaptiveScan scan = new AdaptiveScan(mtau, 0.02, 0.01);
+        int round = 0;
+        while (new File(String.format("%sadaptive_r%02d_manifest.csv", writeDir, round)).isFile())
+        {
+            scan.addManifest(String.format("%sadaptive_r%02d_manifest.csv", writeDir, round), mgDir, shards);
+            round++;
+        }
+        for (int last=round+(args.length > 2 ? MAX_ROUNDS : 1); round<last; round++)
+        {
+            if (round > 0 && scan.size() < 2)
+            {
+                println("Runs of the rounds written not found.");
+                break;
+            }
+            double[] E = round == 0 ? grid(mtau, alpha/80, 0.9, 10) : scan.refine(4*shards);
+            if (E.length == 0)
+            {
+                println(String.format("Scan converged with %d points.", scan.size()));
+                break;
+            }
+            String name = String.format("adaptive_r%02d", round);
+            println(String.format("Round %d: %d points.", round, E.length));
+            List<String> scripts = LeptonPairScript.iterateEbeams(E, E, 10000,
+                    String.format("%s_r%02d", processDir, round), writeDir, name + ".txt", shards, 1 + 10000*round);
+            if (args.length > 2)
+            {
+                // MadGraph creates the process directories relative to where it runs.
+                new ScanLauncher(args[2], shards, mgDir).run(scripts, writeDir + "logs/");
+                scan.addManifest(writeDir + name + "_manifest.csv", mgDir, shards);
+            }
+        }
+        if (scan.size() > 0)
+            scan.write(writeDir + "adaptive_scan.csv");
+    }
+}
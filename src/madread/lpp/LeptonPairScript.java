@@ -2,8 +2,11 @@ package madread.lpp;
 
 import java.io.File;
 import java.io.FileNotFoundException;
+import java.io.IOException;
 import java.io.PrintWriter;
+import java.util.ArrayList;
 import java.util.Iterator;
+import java.util.List;
 
 import static madread.Print.*;
 import static madread.utils.Utils.*;
@@ -50,6 +53,71 @@ public abstract class LeptonPairScript
         out.close();
     }
 
+    /**
+     * Split a scan over beam energies into independent scripts, one per shard, to be run concurrently, e.g. by a
+     * <code>ScanLauncher</code>. Points are dealt to the shards in turn, so that every shard spans the range of
+     * energies. Each shard generates the process into its own directory, <code>processDir_01</code>,
+     * <code>processDir_02</code>, ..., and launches its points there with a seed of their own, the seed plus the index
+     * of the point. Every shard runs MadGraph on a single core (<code>run_mode 0</code>, <code>nb_core 1</code>), so
+     * that as many shards as cores run at once without oversubscribing the machine. A manifest, named after the
+     * scripts with _manifest.csv, maps every point to its shard, script, process directory and run.
+     * @param ebeam1 Energies of the first incoming beam in GeV.
+     * @param ebeam2 Energies of the second incoming beam in GeV.
+     * @param nevents Number of simulated events.
+     * @param processDir Name of madgraph directory in which the process should be hereby initiated; no '/' at the end.
+     * @param writeDir Directory for the scripts and manifest to be written in.
+     * @param fileName Name of the scripts, numbered before the extension, e.g. ebeamscan.txt gives ebeamscan_01.txt.
+     * @param shards Number of scripts, at most the number of points.
+     * @param seed Seed of the first point.
+     * @return Paths (in string) of the scripts.
+     */
+    public static List<String> iterateEbeams(double[] ebeam1, double[] ebeam2, int nevents, String processDir,
+                                             String writeDir, String fileName, int shards, int seed)
+            throws FileNotFoundException
+    {
+        if (ebeam1.length != ebeam2.length)
+            throw new RuntimeException("Lengths of two beam energy arrays not equal!");
+        if (shards < 1)
+            throw new RuntimeException("Number of shards must be positive!");
+        shards = Math.min(shards, Math.max(1, ebeam1.length));
+        new File(writeDir).mkdirs();
+        int dot = fileName.lastIndexOf('.');
+        String base = dot < 0 ? fileName : fileName.substring(0, dot);
+        String ext = dot < 0 ? "" : fileName.substring(dot);
+        List<String> scripts = new ArrayList<>();
+        PrintWriter manifest = new PrintWriter(new File(writeDir + base + "_manifest.csv").getAbsoluteFile());
+        manifest.println("point, ebeam1 (GeV), ebeam2 (GeV), iseed, shard, script, process directory, run");
+        for (int k=0; k<shards; k++)
+        {
+            String script = String.format("%s%s_%02d%s", writeDir, base, k+1, ext);
+            String dir = String.format("%s_%02d", processDir, k+1);
+            PrintWriter out = new PrintWriter(new File(script).getAbsoluteFile());
+            // one core per shard, as the shards themselves run concurrently.
+            out.println("set run_mode 0");
+            out.println("set nb_core 1");
+            out.println("generate e- e+ > ta- ta+");
+            out.println(String.format("output %s", dir));
+            // runs are numbered by MadGraph in order of launch within each process directory.
+            int run = 0;
+            for (int i=k; i<ebeam1.length; i+=shards)
+            {
+                out.println("launch");
+                out.println(String.format("set iseed %s", seed + i));
+                out.println(String.format("set ebeam1 %s", ebeam1[i]));
+                out.println(String.format("set ebeam2 %s", ebeam2[i]));
+                // set m_τ = 100 GeV.
+                out.println(String.format("set mta %s", mtau));
+                out.println(String.format("set nevents %s", nevents));
+                manifest.println(String.format("%d, %s, %s, %d, %d, %s, %s, run_%02d", i, ebeam1[i], ebeam2[i],
+                        seed + i, k+1, script, dir, ++run));
+            }
+            out.close();
+            scripts.add(script);
+        }
+        manifest.close();
+        return scripts;
+    }
+
     /**
      *
      * @param path
@@ -69,7 +137,12 @@ public abstract class LeptonPairScript
         out.close();
     }
 
-    public static void main(String[] args) throws FileNotFoundException {
+    /**
+     * @param args Optionally the MadGraph executable, e.g. bin/mg5_aMC, to run the shard scripts with at once, and
+     *             the number of shards, by default the number of cores; each shard runs on a single core, so fewer
+     *             shards leave cores idle rather than letting MadGraph use them.
+     */
+    public static void main(String[] args) throws IOException {
         // max speed
         double vmin = alpha/80;
         double vmax = 0.9;
@@ -86,7 +159,10 @@ public abstract class LeptonPairScript
         String newprocessDir = "Repository/e-e+_tau-tau+/lpp_global";
         // directory for generated script and beam energy data.
         String writeDir = "./src/madread/cases/e-e+_tau-tau+/trials/";
-        iterateEbeams(E, E, 10000, newprocessDir, writeDir, "ebeamscan_global.txt");
+        int shards = args.length > 1 ? Integer.parseInt(args[1]) : Runtime.getRuntime().availableProcessors();
+        List<String> scripts = iterateEbeams(E, E, 10000, newprocessDir, writeDir, "ebeamscan_global.txt", shards, 1);
         writeEnergy(writeDir, E, "beam_energy_global.csv");
+        if (args.length > 0)
+            new ScanLauncher(args[0], shards).run(scripts, writeDir + "logs/");
     }
 }
@@ -0,0 +1,126 @@
+package madread.lpp;
+
+import static madread.Print.*;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Runner of the shard scripts of a scan, e.g. as written by <code>LeptonPairScript.iterateEbeams</code>, each as its
+ * own MadGraph process, at most a given number at a time. The output of every process goes to a log of its script's
+ * name, and a shard failing does not stop the others. Each process should keep to a single core, as the shards of
+ * <code>iterateEbeams</code> do, lest the processes together oversubscribe the machine.
+ * <p>
+ * Any program taking the script as its only argument stands in for MadGraph, e.g. to try a scan out without
+ * simulating: a shell script <code>fake_mg.sh</code> of
+ * <pre>
+ * #!/bin/sh
+ * echo "running $1"; sleep 1; grep -c launch "$1"
+ * </pre>
+ * run by <code>new ScanLauncher("./fake_mg.sh", 2).run(scripts, "logs/")</code> logs the number of points of every
+ * script and exits with 0, two scripts at a time.
+ */
+public class ScanLauncher
+{
+    private final String executable;
+
+    private final int processes;
+
+    /**
+     * Working directory of the processes, or null for that of this program.
+     */
+    private final File directory;
+
+    /**
+     * @param executable Program running a script given as its only argument, e.g. bin/mg5_aMC.
+     * @param processes Number of processes running at once.
+     */
+    public ScanLauncher(String executable, int processes)
+    {
+        this(executable, processes, null);
+    }
+
+    /**
+     * @param executable Program running a script given as its only argument, relative to the working directory if
+     *                   not absolute, e.g. bin/mg5_aMC.
+     * @param processes Number of processes running at once.
+     * @param directory Working directory of the processes, e.g. the MadGraph directory, against which the process
+     *                  directories of the scripts are created; null for that of this program.
+     */
+    public ScanLauncher(String executable, int processes, String directory)
+    {
+        if (processes < 1)
+            throw new RuntimeException("Number of processes must be positive!");
+        this.executable = executable;
+        this.processes = processes;
+        this.directory = directory == null ? null : new File(directory);
+    }
+
+    /**
+     * Run every script and wait for all to finish.
+     * @param scripts Paths (in string) of the scripts.
+     * @param logDir Directory of the logs, ending with '/', created if absent; the log of a script is named after it
+     *               with .log.
+     * @return Exit code of each script in order, -1 if it could not be started.
+     * @throws IOException
+     */
+    public int[] run(List<String> scripts, String logDir) throws IOException
+    {
+        new File(logDir).mkdirs();
+        println(String.format("Running %d scripts in %d processes.", scripts.size(), processes));
+        ExecutorService pool = Executors.newFixedThreadPool(processes);
+        List<Future<Integer>> outcomes = new ArrayList<>();
+        try
+        {
+            for (String script: scripts)
+                outcomes.add(pool.submit(() -> {
+                    File log = new File(logDir + new File(script).getName() + ".log");
+                    long start = System.nanoTime();
+                    // the script is handed absolute, as the processes may run elsewhere.
+                    Process p = new ProcessBuilder(executable, new File(script).getAbsolutePath()).directory(directory)
+                            .redirectErrorStream(true).redirectOutput(log).start();
+                    int code;
+                    try
+                    {
+                        code = p.waitFor();
+                    }
+                    catch (InterruptedException e)
+                    {
+                        p.destroyForcibly();
+                        throw e;
+                    }
+                    println(String.format("%s exited with %d after %.1f s.", script, code,
+                            (System.nanoTime() - start) / 1e9));
+                    return code;
+                }));
+            int[] codes = new int[scripts.size()];
+            for (int i=0; i<codes.length; i++)
+                try
+                {
+                    codes[i] = outcomes.get(i).get();
+                }
+                catch (ExecutionException e)
+                {
+                    codes[i] = -1;
+                    println(String.format("%s failed: %s", scripts.get(i), e.getCause()));
+                }
+                catch (InterruptedException e)
+                {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for " + scripts.get(i) + "!", e);
+                }
+            return codes;
+        }
+        finally
+        {
+            // processes still running are destroyed as their threads are interrupted.
+            pool.shutdownNow();
+        }
+    }
+}
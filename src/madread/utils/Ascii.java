@@ -0,0 +1,246 @@
+package madread.utils;
+
+/**
+ * Formatting of numbers straight into byte buffers as ASCII text, without going through <code>String</code>.
+ */
+public abstract class Ascii
+{
+    /**
+     * Exact powers of ten, up to the largest exactly representable as a double.
+     */
+    private static final double[] POW10 = {
+            1e0, 1e1, 1e2, 1e3, 1e4, 1e5, 1e6, 1e7, 1e8, 1e9, 1e10, 1e11,
+            1e12, 1e13, 1e14, 1e15, 1e16, 1e17, 1e18, 1e19, 1e20, 1e21, 1e22};
+
+    /**
+     * Maximum number of bytes written by <code>putDouble</code>.
+     */
+    public static final int MAX_DOUBLE_LENGTH = 26;
+
+    /**
+     * Maximum number of bytes written by <code>putLong</code>.
+     */
+    public static final int MAX_LONG_LENGTH = 20;
+
+    /**
+     * Write the shortest decimal that parses back to the given double, in the notation of <code>Double.toString
+     * </code>: plain (<code>500.0</code>, <code>-0.00125</code>) for magnitudes in [10<sup>-3</sup>, 10<sup>7</sup>),
+     * computerised scientific (<code>1.25E-7</code>) otherwise. The text round-trips exactly, but may be shorter than
+     * that of <code>Double.toString</code> on JDK 17, which for some values prints a digit more than needed, e.g.
+     * <code>2.891906578350958E17</code> for its <code>2.8919065783509581E17</code>.
+     * <br/><br/>
+     * The digits are searched for by increasing precision, each candidate being checked exactly by converting it back
+     * with a single multiplication or division by an exact power of ten. This covers magnitudes down to about
+     * 10<sup>-7</sup> and up to 10<sup>22</sup>, everything else falling back to <code>Double.toString</code>.
+     * @param b Buffer written to, with room for <code>MAX_DOUBLE_LENGTH</code> bytes from <code>pos</code>.
+     * @param pos Index at which the number is written.
+     * @param v The number.
+     * @return Index past the number written.
+     */
+    public static int putDouble(byte[] b, int pos, double v)
+    {
+        if (v != v || Double.isInfinite(v))
+            return putAscii(b, pos, Double.toString(v));
+        if (v == 0)
+            return putAscii(b, pos, 1 / v < 0 ? "-0.0" : "0.0");
+        double signed = v;
+        if (v < 0)
+        {
+            b[pos++] = '-';
+            v = -v;
+        }
+        int e10 = (int) Math.floor(Math.log10(v));
+        for (int p = 1; p <= 17; p++)
+        {
+            int k = p - 1 - e10;
+            if (k > 22 || k < -22)
+                break;
+            long m = Math.round(k >= 0 ? v * POW10[k] : v / POW10[-k]);
+            if (m <= 0 || m >= 1L << 53)
+                continue;
+            double back = k >= 0 ? m / POW10[k] : m * POW10[-k];
+            if (back == v)
+                return putDecimal(b, pos, m, k);
+        }
+        return putAscii(b, signed < 0 ? pos - 1 : pos, Double.toString(signed));
+    }
+
+    /**
+     * Write a number in the scientific notation of Fortran and <code>%e</code>, e.g. <code>+1.9202575877e+02</code>,
+     * with the given number of digits after the point and an exponent of at least two digits. The digits are those of
+     * the number multiplied by a power of ten and rounded, which is exact for any number printed with no more digits;
+     * magnitudes beyond the exact powers of ten fall back to <code>String.format</code>.
+     * @param b Buffer written to, with room for <code>digits + 8</code> bytes from <code>pos</code>.
+     * @param pos Index at which the number is written.
+     * @param v The number.
+     * @param digits Number of digits after the point, at most 15.
+     * @param plus Whether positive numbers are signed.
+     * @return Index past the number written.
+     */
+    public static int putScientific(byte[] b, int pos, double v, int digits, boolean plus)
+    {
+        if (v != v || Double.isInfinite(v))
+            return putAscii(b, pos, Double.toString(v));
+        if (v < 0 || v == 0 && 1 / v < 0)
+        {
+            b[pos++] = '-';
+            v = -v;
+        }
+        else if (plus)
+            b[pos++] = '+';
+        long m = 0;
+        int e10 = 0;
+        if (v != 0)
+        {
+            e10 = (int) Math.floor(Math.log10(v));
+            long low = pow10(digits), high = low * 10;
+            for (int tries = 0; tries < 3; tries++)
+            {
+                int k = digits - e10;
+                if (k > 22 || k < -22)
+                    return putAscii(b, pos, String.format("%." + digits + "e", v));
+                m = Math.round(k >= 0 ? v * POW10[k] : v / POW10[-k]);
+                if (m >= high)
+                    e10++;
+                else if (m < low)
+                    e10--;
+                else
+                    break;
+            }
+            // rounding up to the next power of ten.
+            if (m >= high)
+            {
+                m /= 10;
+                e10++;
+            }
+        }
+        long div = pow10(digits);
+        b[pos++] = (byte) ('0' + m / div);
+        b[pos++] = '.';
+        pos = putDigits(b, pos, m % div, digits);
+        b[pos++] = 'e';
+        b[pos++] = (byte) (e10 < 0 ? '-' : '+');
+        int e = Math.abs(e10);
+        return putDigits(b, pos, e, e < 100 ? 2 : 3);
+    }
+
+    /**
+     * Write a decimal integer right aligned in a field of the given width, padded with spaces.
+     * @return Index past the field written.
+     */
+    public static int putLong(byte[] b, int pos, long v, int width)
+    {
+        int len = v == Long.MIN_VALUE ? 20 : (v < 0 ? 1 : 0) + digits(Math.abs(v));
+        for (int i = len; i < width; i++)
+            b[pos++] = ' ';
+        return putLong(b, pos, v);
+    }
+
+    /**
+     * Write the decimal <code>m * 10^-k</code>.
+     */
+    private static int putDecimal(byte[] b, int pos, long m, int k)
+    {
+        while (m % 10 == 0)
+        {
+            m /= 10;
+            k--;
+        }
+        int len = digits(m);
+        // decimal exponent of the leading digit.
+        int e = len - 1 - k;
+        if (e >= -3 && e < 7)
+        {
+            if (e < 0)
+            {
+                b[pos++] = '0';
+                b[pos++] = '.';
+                for (int i = -1; i > e; i--)
+                    b[pos++] = '0';
+                return putDigits(b, pos, m, len);
+            }
+            if (len <= e + 1)
+            {
+                // integral: pad with zeros and terminate in ".0".
+                pos = putDigits(b, pos, m, len);
+                for (int i = len; i <= e; i++)
+                    b[pos++] = '0';
+                b[pos++] = '.';
+                b[pos++] = '0';
+                return pos;
+            }
+            long div = pow10(len - e - 1);
+            pos = putDigits(b, pos, m / div, e + 1);
+            b[pos++] = '.';
+            return putDigits(b, pos, m % div, len - e - 1);
+        }
+        long div = pow10(len - 1);
+        b[pos++] = (byte) ('0' + m / div);
+        b[pos++] = '.';
+        if (len == 1)
+            b[pos++] = '0';
+        else
+            pos = putDigits(b, pos, m % div, len - 1);
+        b[pos++] = 'E';
+        return putLong(b, pos, e);
+    }
+
+    /**
+     * Write a decimal integer.
+     * @return Index past the number written.
+     */
+    public static int putLong(byte[] b, int pos, long v)
+    {
+        if (v == Long.MIN_VALUE)
+            return putAscii(b, pos, Long.toString(v));
+        if (v < 0)
+        {
+            b[pos++] = '-';
+            v = -v;
+        }
+        return putDigits(b, pos, v, digits(v));
+    }
+
+    /**
+     * Write the given number of trailing digits of a non-negative integer, zero padded.
+     */
+    private static int putDigits(byte[] b, int pos, long v, int n)
+    {
+        for (int i = pos + n - 1; i >= pos; i--)
+        {
+            b[i] = (byte) ('0' + v % 10);
+            v /= 10;
+        }
+        return pos + n;
+    }
+
+    /**
+     * Write an ASCII string.
+     * @return Index past the string written.
+     */
+    public static int putAscii(byte[] b, int pos, String s)
+    {
+        for (int i = 0; i < s.length(); i++)
+            b[pos++] = (byte) s.charAt(i);
+        return pos;
+    }
+
+    private static int digits(long v)
+    {
+        int n = 1;
+        while (v >= 10)
+        {
+            v /= 10;
+            n++;
+        }
+        return n;
+    }
+
+    private static long pow10(int n)
+    {
+        long p = 1;
+        for (int i = 0; i < n; i++)
+            p *= 10;
+        return p;
+    }
+}
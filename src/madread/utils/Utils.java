@@ -12,5 +12,68 @@ public abstract class Utils
         return 1 / sqrt(1-pow(v, 2));
     }
 
+    /**
+     * @return Transverse momentum.
+     */
+    public static double pt(double px, double py)
+    {
+        return sqrt(px*px + py*py);
+    }
+
+    /**
+     * @return Pseudorapidity, infinite along the beam axis.
+     */
+    public static double eta(double px, double py, double pz)
+    {
+        double pt = pt(px, py);
+        double p = sqrt(pt*pt + pz*pz);
+        // evaluated for |pz| to avoid the cancellation in p - |pz|.
+        return copySign(log((p + abs(pz)) / pt), pz);
+    }
 
+    /**
+     * @return Azimuth in (-pi, pi].
+     */
+    public static double phi(double px, double py)
+    {
+        return atan2(py, px);
+    }
+
+    /**
+     * @return Rapidity.
+     */
+    public static double rapidity(double e, double pz)
+    {
+        return 0.5 * log((e + pz) / (e - pz));
+    }
+
+    /**
+     * @return Invariant mass, 0 if the squared mass is negative by rounding.
+     */
+    public static double mass(double e, double px, double py, double pz)
+    {
+        return sqrt(max(e*e - px*px - py*py - pz*pz, 0));
+    }
+
+    /**
+     * @return Difference of azimuths wrapped into [-pi, pi].
+     */
+    public static double deltaPhi(double phi1, double phi2)
+    {
+        double d = phi1 - phi2;
+        if (d > PI)
+            d -= 2*PI;
+        else if (d < -PI)
+            d += 2*PI;
+        return d;
+    }
+
+    /**
+     * @return Distance in the pseudorapidity-azimuth plane.
+     */
+    public static double deltaR(double eta1, double phi1, double eta2, double phi2)
+    {
+        double dEta = eta1 - eta2, dPhi = deltaPhi(phi1, phi2);
+        return sqrt(dEta*dEta + dPhi*dPhi);
+    }
 }